@@ -0,0 +1,64 @@
+package sune.util.load.bench;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import sune.util.load.ClassDependencyAnalyzer;
+import sune.util.load.DependencyVisitor;
+
+/**
+ * Benchmarks of {@linkplain ClassDependencyAnalyzer} on a small and a large
+ * synthetic class file. The size of a class file is given by the number of
+ * fields, each of them of a distinct type.
+ * @author Sune
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AnalyzerBenchmark {
+	
+	@Param({ "8", "2000" })
+	public int fields;
+	
+	private ByteBuffer buffer;
+	private DependencyVisitor visitor;
+	
+	@Setup
+	public void setup(Blackhole blackhole) {
+		buffer = ByteBuffer.wrap(SyntheticModule.classFile(fields));
+		visitor = (name) -> blackhole.consume(name.length());
+	}
+	
+	@Benchmark
+	public Set<String> dependencies() {
+		return ClassDependencyAnalyzer.dependencies(buffer);
+	}
+	
+	@Benchmark
+	public void dependenciesVisitor() {
+		ClassDependencyAnalyzer.dependencies(buffer, visitor);
+	}
+	
+	@Benchmark
+	public List<String> supertypes() {
+		return ClassDependencyAnalyzer.supertypes(buffer);
+	}
+}
\ No newline at end of file
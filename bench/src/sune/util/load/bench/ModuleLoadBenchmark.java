@@ -0,0 +1,95 @@
+package sune.util.load.bench;
+
+import java.io.IOException;
+import java.lang.module.ResolvedModule;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import sune.util.load.ModuleLazyLoader;
+import sune.util.load.ZIPLoader;
+
+/**
+ * <p>
+ * Benchmarks of loading a synthetic module using {@linkplain ZIPLoader}, which
+ * defines all its classes, and {@linkplain ModuleLazyLoader}, which only
+ * registers the module.
+ * </p>
+ * 
+ * <p>
+ * Since a loaded module cannot be unloaded and its name and packages must be
+ * unique, a new module is generated before each iteration and each iteration
+ * loads exactly one module, i.e. the time of a single load is measured.
+ * </p>
+ * 
+ * @author Sune
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ModuleLoadBenchmark {
+	
+	@Param({ "100", "1000", "10000" })
+	public int classes;
+	
+	// Names must be unique within the whole JVM
+	private static final AtomicInteger counter = new AtomicInteger();
+	
+	private Path dir;
+	private Path jar;
+	private String name;
+	
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		dir = Files.createTempDirectory("sune-bench");
+	}
+	
+	@Setup(Level.Iteration)
+	public void generate() throws IOException {
+		// Automatic module name is derived from the file name
+		name = "m" + SyntheticModule.letters(counter.getAndIncrement());
+		jar = dir.resolve(name + ".jar");
+		SyntheticModule.write(jar, name, classes, false);
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		try(Stream<Path> paths = Files.walk(dir)) {
+			paths.sorted(Comparator.reverseOrder()).forEach((path) -> path.toFile().delete());
+		}
+	}
+	
+	@Benchmark
+	public boolean zipLoader() throws Exception {
+		ClassLoader loader = new URLClassLoader(new URL[0], ModuleLoadBenchmark.class.getClassLoader());
+		return ZIPLoader.load(jar, name, loader);
+	}
+	
+	@Benchmark
+	public ResolvedModule moduleLazyLoader() {
+		// Lazy loading requires a built-in class loader
+		return ModuleLazyLoader.loadModule(jar, name, ClassLoader.getSystemClassLoader());
+	}
+}
\ No newline at end of file
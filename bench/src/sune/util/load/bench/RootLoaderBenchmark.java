@@ -0,0 +1,79 @@
+package sune.util.load.bench;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import sune.util.load.ContentsResolver;
+import sune.util.load.MappedJarReader;
+import sune.util.load.ResolvingRootAnalyzingClassLoader;
+import sune.util.load.ResolvingRootClassLoader;
+import sune.util.load.RootAnalyzingClassLoader;
+import sune.util.load.RootClassLoader;
+
+/**
+ * Benchmarks of loading all classes of a synthetic module using
+ * {@linkplain RootClassLoader} and {@linkplain RootAnalyzingClassLoader}.
+ * The classes form hierarchies of depth {@value SyntheticModule#DEPTH}
+ * and are loaded from the deepest ones, so that each class requires all
+ * its supertypes to be loaded first. Each operation loads the classes into
+ * a new class loader.
+ * @author Sune
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RootLoaderBenchmark {
+	
+	@Param({ "100", "1000", "10000" })
+	public int classes;
+	
+	private MappedJarReader reader;
+	private List<String> paths;
+	
+	@Setup
+	public void setup() throws Exception {
+		reader = MappedJarReader.open(SyntheticModule.dataJar(classes));
+		paths = SyntheticModule.classPaths("synthetic", classes);
+		Collections.reverse(paths); // Deepest classes first
+	}
+	
+	@TearDown
+	public void tearDown() {
+		reader.close();
+	}
+	
+	private static final ClassLoader newLoader() {
+		return new URLClassLoader(new URL[0], RootLoaderBenchmark.class.getClassLoader());
+	}
+	
+	@Benchmark
+	public List<Class<?>> rootClassLoader() throws Exception {
+		RootClassLoader root = new ResolvingRootClassLoader(newLoader(), ContentsResolver.of(reader));
+		return root.loadClasses(paths);
+	}
+	
+	@Benchmark
+	public List<Class<?>> rootAnalyzingClassLoader() throws Exception {
+		RootClassLoader root = new ResolvingRootAnalyzingClassLoader(newLoader(), ContentsResolver.of(reader));
+		return root.loadClasses(paths);
+	}
+}
\ No newline at end of file
@@ -0,0 +1,259 @@
+package sune.util.load.bench;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * <p>
+ * Generator of synthetic class files and module JAR files used as inputs
+ * of the benchmarks. The class files are written directly, without any
+ * compiler, and contain no methods, so they can be defined, but never
+ * initialized.
+ * </p>
+ * 
+ * <p>
+ * Classes of a module form hierarchies of the given depth, i.e. each class
+ * extends the previous class of its hierarchy. Each class also declares fields
+ * of types of other classes in the module, so that it has dependencies that
+ * are not its supertypes.
+ * </p>
+ * 
+ * <p>
+ * The generated JAR files contain no module descriptor, therefore they are
+ * automatic modules whose name is derived from the file name. The name and
+ * the package prefix of a module must be unique for each module loaded into
+ * a single JVM.
+ * </p>
+ * 
+ * @author Sune
+ */
+public final class SyntheticModule {
+	
+	/** Depth of class hierarchies in the generated modules. */
+	public static final int DEPTH = 20;
+	/** Number of fields of each class in the generated modules. */
+	public static final int FIELDS = 4;
+	/** System property with the directory of pre-generated module JAR files. */
+	public static final String PROPERTY_DATA = "sune.bench.data";
+	
+	private static final int CLASSES_PER_PACKAGE = 100;
+	private static final int ACC_PUBLIC = 0x0001;
+	private static final int ACC_SUPER  = 0x0020;
+	
+	// Forbid anyone to create an instance of this class
+	private SyntheticModule() {
+	}
+	
+	/**
+	 * Creates a class file of a class with the given internal {@code name}
+	 * that extends the given {@code superName} class and declares a field
+	 * of each of the given {@code fieldTypes}.
+	 * @param name the internal name of the class
+	 * @param superName the internal name of the superclass
+	 * @param fieldTypes the internal names of the types of the fields
+	 * @return The bytes of the class file.
+	 */
+	public static final byte[] classFile(String name, String superName, List<String> fieldTypes) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(128 + fieldTypes.size() * 48);
+			DataOutputStream out = new DataOutputStream(bytes);
+			
+			out.writeInt(0xcafebabe);
+			out.writeShort(0);  // Minor version
+			out.writeShort(52); // Java 8
+			out.writeShort(5 + fieldTypes.size() * 2);
+			
+			out.writeByte(1); out.writeUTF(name);      // #1
+			out.writeByte(7); out.writeShort(1);       // #2
+			out.writeByte(1); out.writeUTF(superName); // #3
+			out.writeByte(7); out.writeShort(3);       // #4
+			
+			for(int i = 0, l = fieldTypes.size(); i < l; ++i) {
+				out.writeByte(1); out.writeUTF("f" + i);
+				out.writeByte(1); out.writeUTF("L" + fieldTypes.get(i) + ";");
+			}
+			
+			out.writeShort(ACC_PUBLIC | ACC_SUPER);
+			out.writeShort(2); // This class
+			out.writeShort(4); // Superclass
+			out.writeShort(0); // Interfaces
+			
+			out.writeShort(fieldTypes.size());
+			for(int i = 0, l = fieldTypes.size(); i < l; ++i) {
+				out.writeShort(ACC_PUBLIC);
+				out.writeShort(5 + i * 2); // Name
+				out.writeShort(6 + i * 2); // Descriptor
+				out.writeShort(0);         // Attributes
+			}
+			
+			out.writeShort(0); // Methods
+			out.writeShort(0); // Attributes
+			out.flush();
+			return bytes.toByteArray();
+		} catch(IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+	}
+	
+	/**
+	 * Creates a class file of a class that declares the given number of fields
+	 * of distinct types, e.g. to benchmark the analysis of large classes.
+	 * @param fields the number of fields
+	 * @return The bytes of the class file.
+	 */
+	public static final byte[] classFile(int fields) {
+		List<String> types = new ArrayList<>(fields);
+		
+		for(int i = 0; i < fields; ++i) {
+			types.add("synthetic/types/p" + (i / CLASSES_PER_PACKAGE) + "/Type" + i);
+		}
+		
+		return classFile("synthetic/Subject", "java/lang/Object", types);
+	}
+	
+	/**
+	 * Gets the internal name of the {@code index}-th class of a module
+	 * with the given package {@code prefix}.
+	 * @param prefix the package prefix
+	 * @param index the index of the class
+	 * @return The internal name of the class.
+	 */
+	public static final String className(String prefix, int index) {
+		return prefix + "/p" + (index / CLASSES_PER_PACKAGE) + "/C" + index;
+	}
+	
+	/**
+	 * Gets paths of all classes of a module with the given package {@code prefix}
+	 * and the given number of {@code classes}.
+	 * @param prefix the package prefix
+	 * @param classes the number of classes
+	 * @return The paths of the classes.
+	 */
+	public static final List<String> classPaths(String prefix, int classes) {
+		List<String> paths = new ArrayList<>(classes);
+		
+		for(int i = 0; i < classes; ++i) {
+			paths.add(className(prefix, i) + ".class");
+		}
+		
+		return paths;
+	}
+	
+	/**
+	 * Writes a module JAR file with the given number of {@code classes}
+	 * to the given {@code jar} path. Contents of the module depend only on
+	 * the arguments.
+	 * @param jar the path of the JAR file
+	 * @param prefix the package prefix, in the internal form, e.g. {@code a/b}
+	 * @param classes the number of classes
+	 * @param stored whether the entries should be stored instead of deflated
+	 */
+	public static final void write(Path jar, String prefix, int classes, boolean stored) throws IOException {
+		Random random = new Random(classes);
+		
+		try(ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(jar)))) {
+			if(stored) {
+				out.setMethod(ZipOutputStream.STORED);
+			}
+			
+			for(int i = 0; i < classes; ++i) {
+				String superName = i % DEPTH == 0 ? "java/lang/Object" : className(prefix, i - 1);
+				List<String> fieldTypes = new ArrayList<>(FIELDS);
+				
+				for(int f = 0; f < FIELDS; ++f) {
+					fieldTypes.add(className(prefix, random.nextInt(classes)));
+				}
+				
+				byte[] bytes = classFile(className(prefix, i), superName, fieldTypes);
+				ZipEntry entry = new ZipEntry(className(prefix, i) + ".class");
+				
+				if(stored) {
+					CRC32 crc = new CRC32();
+					crc.update(bytes);
+					entry.setSize(bytes.length);
+					entry.setCompressedSize(bytes.length);
+					entry.setCrc(crc.getValue());
+				}
+				
+				out.putNextEntry(entry);
+				out.write(bytes);
+				out.closeEntry();
+			}
+		}
+	}
+	
+	/**
+	 * Converts the given number to a name segment consisting only of lowercase
+	 * letters, e.g. to create unique module names and package prefixes.
+	 * @param n the number
+	 * @return The name segment.
+	 */
+	public static final String letters(int n) {
+		StringBuilder builder = new StringBuilder();
+		
+		do {
+			builder.append((char) ('a' + n % 26));
+			n /= 26;
+		} while(n > 0);
+		
+		return builder.reverse().toString();
+	}
+	
+	/**
+	 * Gets a module JAR file named {@code synthetic<n>.jar} with the given number
+	 * of {@code classes}. The file is taken from the directory given by
+	 * the {@value #PROPERTY_DATA} system property, as generated by the benchmark
+	 * build. If there is no such file, it is generated into a temporary directory.
+	 * @param classes the number of classes
+	 * @return The path of the JAR file.
+	 */
+	public static final Path dataJar(int classes) throws IOException {
+		String name = "synthetic" + classes + ".jar";
+		String data = System.getProperty(PROPERTY_DATA);
+		
+		if(data != null) {
+			Path jar = Path.of(data, name);
+			
+			if(Files.isRegularFile(jar)) {
+				return jar;
+			}
+		}
+		
+		Path jar = Files.createTempDirectory("sune-bench").resolve(name);
+		write(jar, "synthetic", classes, false);
+		jar.toFile().deleteOnExit();
+		jar.getParent().toFile().deleteOnExit();
+		return jar;
+	}
+	
+	/**
+	 * Generates module JAR files named {@code synthetic<n>.jar} with the given
+	 * numbers of classes into the given directory.
+	 * @param args the output directory followed by the numbers of classes
+	 */
+	public static void main(String[] args) throws IOException {
+		if(args.length < 2) {
+			System.err.println("Usage: SyntheticModule <dir> <classes>...");
+			System.exit(1);
+		}
+		
+		Path dir = Files.createDirectories(Path.of(args[0]));
+		for(int i = 1; i < args.length; ++i) {
+			int classes = Integer.parseInt(args[i]);
+			Path jar = dir.resolve("synthetic" + classes + ".jar");
+			write(jar, "synthetic", classes, false);
+			System.out.println("Generated " + jar + " (" + classes + " classes)");
+		}
+	}
+}
\ No newline at end of file
@@ -1,6 +1,7 @@
 module sune.util.load {
 	// Internal modules
 	requires jdk.unsupported;
+	requires static jdk.jfr;
 	// Exports
 	exports sune.util.load;
 }
\ No newline at end of file
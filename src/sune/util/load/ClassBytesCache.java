@@ -0,0 +1,221 @@
+package sune.util.load;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * <p>
+ * Size-bounded cache of contents of classes, keyed by their paths. The total
+ * size of all cached contents never exceeds the given budget, the least
+ * recently used contents are evicted first.
+ * </p>
+ * 
+ * <p>
+ * The cache owns the buffers put into it. A buffer is passed back to its
+ * releaser once it is evicted or the cache is cleared. A buffer {@linkplain
+ * #take(String) taken} from the cache is removed from it, therefore it is never
+ * released while it is used. It should either be put back, if it is needed
+ * again later, or released by the caller, e.g. once its class is defined.
+ * </p>
+ * 
+ * <p>
+ * Since the contents are keyed only by their paths, a single cache should be
+ * shared only among loaders that read the same contents.
+ * </p>
+ * 
+ * @author Sune
+ * @see RootClassLoader#setBytesCache(ClassBytesCache)
+ */
+public final class ClassBytesCache {
+	
+	private final long maxSize;
+	private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private long size;
+	private long hitCount;
+	private long missCount;
+	private long evictionCount;
+	
+	/**
+	 * Creates a new cache with the given budget.
+	 * @param maxSize the maximum total size of cached contents, in bytes
+	 */
+	public ClassBytesCache(long maxSize) {
+		if(maxSize < 0L) {
+			throw new IllegalArgumentException("Negative maximum size");
+		}
+		
+		this.maxSize = maxSize;
+	}
+	
+	private static final void release(List<Entry> entries) {
+		for(Entry entry : entries) {
+			entry.releaser.accept(entry.buffer);
+		}
+	}
+	
+	/**
+	 * Takes contents of a class located at the given {@code path} out of the cache.
+	 * @param path the path of the class
+	 * @return The buffer with the contents, or {@code null}, if the contents
+	 * are not cached.
+	 */
+	public ByteBuffer take(String path) {
+		synchronized(this) {
+			Entry entry;
+			if((entry = entries.remove(path)) == null) {
+				++missCount;
+				return null;
+			}
+			
+			size -= entry.size;
+			++hitCount;
+			return entry.buffer;
+		}
+	}
+	
+	/**
+	 * Puts contents of a class located at the given {@code path} into the cache.
+	 * The least recently used contents are evicted, if the budget would be exceeded.
+	 * Contents larger than the whole budget are released immediately.
+	 * @param path the path of the class
+	 * @param buffer the buffer with the contents
+	 * @param releaser the releaser of the buffer, called once the buffer
+	 * is evicted
+	 */
+	public void put(String path, ByteBuffer buffer, Consumer<ByteBuffer> releaser) {
+		Entry added = new Entry(buffer, releaser);
+		List<Entry> evicted = new ArrayList<>();
+		
+		synchronized(this) {
+			if(added.size > maxSize) {
+				evicted.add(added);
+				++evictionCount;
+			} else {
+				Entry previous;
+				if((previous = entries.put(path, added)) != null) {
+					size -= previous.size;
+					evicted.add(previous);
+				}
+				
+				size += added.size;
+				for(Iterator<Entry> it = entries.values().iterator(); size > maxSize && it.hasNext();) {
+					Entry entry = it.next();
+					it.remove();
+					size -= entry.size;
+					evicted.add(entry);
+					++evictionCount;
+				}
+			}
+		}
+		
+		// Release outside the lock, the releasers may be arbitrary code
+		release(evicted);
+	}
+	
+	/**
+	 * Removes and releases contents of a class located at the given {@code path},
+	 * if cached.
+	 * @param path the path of the class
+	 */
+	public void remove(String path) {
+		Entry entry;
+		
+		synchronized(this) {
+			if((entry = entries.remove(path)) == null) {
+				return;
+			}
+			
+			size -= entry.size;
+		}
+		
+		entry.releaser.accept(entry.buffer);
+	}
+	
+	/**
+	 * Removes and releases all cached contents. The statistics are not reset.
+	 */
+	public void clear() {
+		List<Entry> removed;
+		
+		synchronized(this) {
+			removed = new ArrayList<>(entries.values());
+			entries.clear();
+			size = 0L;
+		}
+		
+		release(removed);
+	}
+	
+	/**
+	 * Gets the maximum total size of cached contents.
+	 * @return The budget, in bytes.
+	 */
+	public long maxSize() {
+		return maxSize;
+	}
+	
+	/**
+	 * Gets the current total size of cached contents.
+	 * @return The size, in bytes.
+	 */
+	public synchronized long size() {
+		return size;
+	}
+	
+	/**
+	 * Gets the number of cached contents.
+	 * @return The number of entries.
+	 */
+	public synchronized int count() {
+		return entries.size();
+	}
+	
+	/**
+	 * Gets the number of times requested contents were found in the cache.
+	 * @return The number of hits.
+	 */
+	public synchronized long hitCount() {
+		return hitCount;
+	}
+	
+	/**
+	 * Gets the number of times requested contents were not found in the cache.
+	 * @return The number of misses.
+	 */
+	public synchronized long missCount() {
+		return missCount;
+	}
+	
+	/**
+	 * Gets the number of contents evicted due to the budget, including
+	 * contents that were larger than the whole budget.
+	 * @return The number of evictions.
+	 */
+	public synchronized long evictionCount() {
+		return evictionCount;
+	}
+	
+	@Override
+	public synchronized String toString() {
+		return String.format("ClassBytesCache[size=%d/%d, count=%d, hits=%d, misses=%d, evictions=%d]",
+		                     size, maxSize, entries.size(), hitCount, missCount, evictionCount);
+	}
+	
+	private static final class Entry {
+		
+		final ByteBuffer buffer;
+		final Consumer<ByteBuffer> releaser;
+		final int size;
+		
+		Entry(ByteBuffer buffer, Consumer<ByteBuffer> releaser) {
+			this.buffer = buffer;
+			this.releaser = releaser;
+			this.size = buffer.remaining();
+		}
+	}
+}
\ No newline at end of file
@@ -1,12 +1,14 @@
 package sune.util.load;
 
 import java.nio.ByteBuffer;
-import java.nio.charset.StandardCharsets;
-import java.util.BitSet;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
 
+import sune.util.load.LoadEvents.ClassAnalysisEvent;
+
 /**
  * <p>
  * Analyzer for analyzing the dependencies of a class.
@@ -41,74 +43,35 @@ public final class ClassDependencyAnalyzer {
 	private static final byte CONSTANT_NameAndType = 12;
 	private static final byte CONSTANT_MethodHandle = 15;
 	private static final byte CONSTANT_MethodType = 16;
+	private static final byte CONSTANT_Dynamic = 17;
 	private static final byte CONSTANT_InvokeDynamic = 18;
+	private static final byte CONSTANT_Module = 19;
+	private static final byte CONSTANT_Package = 20;
 	
-	private static final void addName(Set<String> names, ByteBuffer src, int s, int strSize) {
-		final int e = s + strSize;
-		StringBuilder dst = new StringBuilder(strSize);
-		
-		ascii: {
-			for(byte b; s < e; ++s) {
-				b = src.get(s);
-				
-				if(b < 0) {
-					break ascii;
-				}
-				
-				dst.append((char) (b == '/' ? '.' : b));
-			}
-			
-			names.add(dst.toString());
-			return;
-		}
-		
-		final int oldLimit = src.limit(), oldPos = dst.length();
-		
-		src.limit(e).position(s);
-		dst.append(StandardCharsets.UTF_8.decode(src));
-		src.limit(oldLimit);
-		
-		for(int pos = oldPos, len = dst.length(); pos < len; ++pos) {
-			if(dst.charAt(pos) == '/') {
-				dst.setCharAt(pos, '.');
-			}
-		}
-		
-		names.add(dst.toString());
-	}
+	// Flags of Utf8 entries that contain names of dependencies
+	private static final byte FLAG_CLASS = 1;
+	private static final byte FLAG_DESCRIPTOR = 2;
 	
-	private static final void addNames(Set<String> names, ByteBuffer bb, int s, int l) {
-		final int e = s + l;
-		
-		for(int p; s < e; ++s) {
-			if(bb.get(s) == 'L') {
-				p = s + 1;
-				
-				while(bb.get(p) != ';') ++p;
-				
-				addName(names, bb, s + 1, p - s - 1);
-				s = p;
-			}
+	private static final int constantPoolCount(ByteBuffer bb) {
+		if(bb.getInt(0) != 0xcafebabe) {
+			throw new IllegalArgumentException("Not a class file");
 		}
+		
+		bb.position(8);
+		return bb.getChar();
 	}
 	
 	/**
-	 * Gets the dependencies of the given class represented as a byte buffer.
-	 * @param bb the byte buffer containing the bytes of the class
-	 * @return The dependencies of the class as a set of names. These names
-	 * can be then resolved to Class instances, if needed.
+	 * Scans the constant pool in a single pass, recording the offset of each
+	 * entry in the given {@code offsets} table. If the given {@code flags}
+	 * are not {@code null}, the Utf8 entries containing class names and
+	 * descriptors are marked in them. After the scan the buffer is positioned
+	 * right after the constant pool.
 	 */
-	public static final Set<String> dependencies(ByteBuffer bb) {
-		if(bb.getInt() != 0xcafebabe) {
-			throw new IllegalArgumentException("Not a class file");
-		}
-		
-		bb.position(8);
-		
-		final int numC = bb.getChar();
-		BitSet clazz = new BitSet(numC), sign = new BitSet(numC);
-		
+	private static final void scanConstantPool(ByteBuffer bb, int numC, int[] offsets, byte[] flags) {
 		for(int c = 1; c < numC; ++c) {
+			offsets[c] = bb.position();
+			
 			switch(bb.get()) {
 				case CONSTANT_Utf8:
 					bb.position(bb.getChar() + bb.position());
@@ -118,6 +81,7 @@ public final class ClassDependencyAnalyzer {
 				case CONSTANT_FieldRef:
 				case CONSTANT_MethodRef:
 				case CONSTANT_InterfaceMethodRef:
+				case CONSTANT_Dynamic:
 				case CONSTANT_InvokeDynamic:
 					bb.position(bb.position() + 4);
 					break;
@@ -127,16 +91,20 @@ public final class ClassDependencyAnalyzer {
 					++c;
 					break;
 				case CONSTANT_String:
+				case CONSTANT_Module:
+				case CONSTANT_Package:
 					bb.position(bb.position() + 2);
 					break;
 				case CONSTANT_NameAndType:
 					bb.position(bb.position() + 2); // Skip name
 					// Fall through
 				case CONSTANT_MethodType:
-					sign.set(bb.getChar());
+					if(flags != null) flags[bb.getChar()] |= FLAG_DESCRIPTOR;
+					else bb.position(bb.position() + 2);
 					break;
 				case CONSTANT_Class:
-					clazz.set(bb.getChar());
+					if(flags != null) flags[bb.getChar()] |= FLAG_CLASS;
+					else bb.position(bb.position() + 2);
 					break;
 				case CONSTANT_MethodHandle:
 					bb.position(bb.position() + 3);
@@ -147,7 +115,90 @@ public final class ClassDependencyAnalyzer {
 					);
 			}
 		}
+	}
+	
+	private static final void visitName(DependencyVisitor visitor, DependencyName name, ByteBuffer bb,
+			int s, int strSize) {
+		visitor.visit(name.reset(bb, s, strSize));
+	}
+	
+	private static final void visitNames(DependencyVisitor visitor, DependencyName name, ByteBuffer bb,
+			int s, int l) {
+		final int e = s + l;
+		
+		for(int p; s < e; ++s) {
+			if(bb.get(s) == 'L') {
+				p = s + 1;
+				
+				while(bb.get(p) != ';') ++p;
+				
+				visitName(visitor, name, bb, s + 1, p - s - 1);
+				s = p;
+			}
+		}
+	}
+	
+	private static final void visitClassName(DependencyVisitor visitor, DependencyName name, ByteBuffer bb,
+			int[] offsets, int index) {
+		// The Class entry points to an Utf8 entry with the internal name
+		int utf8 = offsets[bb.getChar(offsets[index] + 1)];
+		visitName(visitor, name, bb, utf8 + 3, bb.getChar(utf8 + 1));
+	}
+	
+	/**
+	 * Gets the dependencies of the given class represented as a byte buffer.
+	 * The class is read from the current position of the buffer, the position
+	 * itself is not changed.
+	 * @param bb the byte buffer containing the bytes of the class
+	 * @return The dependencies of the class as a set of names. These names
+	 * can be then resolved to Class instances, if needed.
+	 */
+	public static final Set<String> dependencies(ByteBuffer bb) {
+		Set<String> names = new LinkedHashSet<>();
+		dependencies(bb, (name) -> names.add(name.toString()));
+		return names;
+	}
+	
+	/**
+	 * <p>
+	 * Visits the dependencies of the given class represented as a byte buffer.
+	 * Each dependency is reported to the given {@code visitor} as a reusable
+	 * view of the name located in the given byte buffer, therefore no String
+	 * is created, unless the visitor materializes the name itself.
+	 * </p>
+	 * 
+	 * <p>
+	 * This allows the visitor to filter the dependencies, e.g. by a prefix,
+	 * before they are materialized. Note that the same dependency may be
+	 * visited multiple times. The offsets of the names are relative to
+	 * the current position of the given buffer.
+	 * </p>
+	 * 
+	 * @param bb the byte buffer containing the bytes of the class
+	 * @param visitor the visitor of the dependencies
+	 */
+	public static final void dependencies(ByteBuffer bb, DependencyVisitor visitor) {
+		ClassAnalysisEvent event = LoadEvents.enabled() ? new ClassAnalysisEvent() : null;
+		if(event != null) event.begin();
+		
+		if(event != null && event.isEnabled()) {
+			// Count the dependencies only when they may be recorded
+			DependencyVisitor delegate = visitor;
+			visitor = (name) -> {
+				++event.dependencies;
+				delegate.visit(name);
+			};
+		}
+		
+		bb = bb.slice(); // Do not modify the given buffer
+		
+		final int numC = constantPoolCount(bb);
+		int[] offsets = new int[numC];
+		byte[] flags = new byte[numC];
+		
+		scanConstantPool(bb, numC, offsets, flags);
 		
+		final int header = bb.position();
 		bb.position(bb.position() + 6);
 		
 		int interfacesCount = bb.getChar();
@@ -159,7 +210,7 @@ public final class ClassDependencyAnalyzer {
 			
 			for(int member = 0; member < numMember; ++member) {
 				bb.position(bb.position() + 4);
-				sign.set(bb.getChar());
+				flags[bb.getChar()] |= FLAG_DESCRIPTOR;
 				
 				int numAttr = bb.getChar();
 				for(int attr = 0; attr < numAttr; ++attr) {
@@ -171,51 +222,68 @@ public final class ClassDependencyAnalyzer {
 			}
 		}
 		
-		bb.position(10);
-		
-		Set<String> names = new LinkedHashSet<>();
+		// Resolve the marked Utf8 entries directly using their offsets
+		DependencyName name = new DependencyName();
 		for(int c = 1; c < numC; ++c) {
-			switch(bb.get()) {
-				case CONSTANT_Utf8:
-					int strSize = bb.getChar(), strStart = bb.position();
-					boolean s = sign.get(c);
-					
-					if(clazz.get(c)) {
-						if(bb.get(bb.position()) == '[') s = true;
-						else addName(names, bb, strStart, strSize);
-					}
-					
-					if(s) addNames(names, bb, strStart, strSize);
-					bb.position(strStart + strSize);
-					break;
-				case CONSTANT_Integer:
-				case CONSTANT_Float:
-				case CONSTANT_FieldRef:
-				case CONSTANT_MethodRef:
-				case CONSTANT_InterfaceMethodRef:
-				case CONSTANT_NameAndType:
-				case CONSTANT_InvokeDynamic:
-					bb.position(bb.position() + 4);
-					break;
-				case CONSTANT_Long:
-				case CONSTANT_Double:
-					bb.position(bb.position() + 8);
-					++c;
-					break;
-				case CONSTANT_String:
-				case CONSTANT_Class:
-				case CONSTANT_MethodType:
-					bb.position(bb.position() + 2);
-					break;
-				case CONSTANT_MethodHandle:
-					bb.position(bb.position() + 3);
-					break;
-				default:
-					throw new AssertionError();
+			int flag = flags[c];
+			
+			if(flag == 0) {
+				continue;
+			}
+			
+			int offset = offsets[c];
+			int strSize = bb.getChar(offset + 1), strStart = offset + 3;
+			boolean s = (flag & FLAG_DESCRIPTOR) != 0;
+			
+			if((flag & FLAG_CLASS) != 0) {
+				if(bb.get(strStart) == '[') s = true;
+				else visitName(visitor, name, bb, strStart, strSize);
 			}
+			
+			if(s) visitNames(visitor, name, bb, strStart, strSize);
 		}
 		
-		return names;
+		if(event != null && event.shouldCommit()) {
+			// Resolve the name of this class only for the event
+			visitClassName((n) -> event.className = n.toString(), name, bb, offsets, bb.getChar(header + 2));
+			event.size = bb.limit();
+			event.commit();
+		}
+	}
+	
+	/**
+	 * Gets the direct supertypes of the given class represented as a byte buffer,
+	 * i.e. its superclass followed by all its directly implemented interfaces.
+	 * Only the class header is read, the rest of the class is not analyzed.
+	 * @param bb the byte buffer containing the bytes of the class
+	 * @return The supertypes of the class as a list of names. The list is empty
+	 * if the class has no superclass and no interfaces.
+	 */
+	public static final List<String> supertypes(ByteBuffer bb) {
+		bb = bb.slice(); // Do not modify the given buffer
+		
+		final int numC = constantPoolCount(bb);
+		int[] offsets = new int[numC];
+		
+		scanConstantPool(bb, numC, offsets, null);
+		
+		bb.position(bb.position() + 4); // Skip access flags and this class
+		
+		int superClass = bb.getChar();
+		int interfacesCount = bb.getChar();
+		Set<String> names = new LinkedHashSet<>(interfacesCount + 1);
+		DependencyName name = new DependencyName();
+		DependencyVisitor visitor = (n) -> names.add(n.toString());
+		
+		if(superClass != 0) {
+			visitClassName(visitor, name, bb, offsets, superClass);
+		}
+		
+		for(int i = 0; i < interfacesCount; ++i) {
+			visitClassName(visitor, name, bb, offsets, bb.getChar());
+		}
+		
+		return new ArrayList<>(names);
 	}
 	
 	/**
@@ -0,0 +1,194 @@
+package sune.util.load;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>
+ * Per class loader cache of presence of classes. For each class loader
+ * it tracks names of classes that are known to be present, i.e. defined
+ * by this library or already resolved, and names of classes that are known
+ * to be absent.
+ * </p>
+ * 
+ * <p>
+ * Unlike {@linkplain Class#forName(String, boolean, ClassLoader)} this cache
+ * does not throw, and therefore does not create, a {@linkplain ClassNotFoundException}
+ * for every class that is not present. Classes already loaded by a class loader are
+ * checked using {@linkplain ClassLoader#findLoadedClass(String)}, other classes are
+ * checked using the exception-based method only once and the result is remembered.
+ * </p>
+ * 
+ * @author Sune
+ */
+final class ClassPresenceCache {
+	
+	private static final Map<ClassLoader, ClassPresenceCache> caches
+		= Collections.synchronizedMap(new WeakHashMap<>());
+	
+	private static Method method_findLoadedClass;
+	
+	/**
+	 * Direct method handle of the findLoadedClass method, or {@code null},
+	 * if it cannot be obtained and the reflective call must be used.
+	 */
+	private static final MethodHandle handle_findLoadedClass = createHandle_findLoadedClass();
+	
+	private final Set<String> present = ConcurrentHashMap.newKeySet();
+	private final Set<String> absent = ConcurrentHashMap.newKeySet();
+	
+	// Forbid anyone else to create an instance of this class
+	private ClassPresenceCache() {
+	}
+	
+	private static final MethodHandle createHandle_findLoadedClass() {
+		try {
+			// The method is already accessible, so no access check is done
+			return MethodHandles.lookup().unreflect(getMethod_findLoadedClass())
+						.asType(MethodType.methodType(Class.class, ClassLoader.class, String.class));
+		} catch(IllegalAccessException
+					| IllegalArgumentException
+					| IllegalStateException ex) {
+			return null; // Use the reflective call instead
+		}
+	}
+	
+	private static final Method getMethod_findLoadedClass()
+			throws IllegalArgumentException,
+				   IllegalAccessException {
+		if(method_findLoadedClass == null) {
+			try {
+				Method method = ClassLoader.class.getDeclaredMethod("findLoadedClass", String.class);
+				Reflection.setAccessible(method, true);
+				method_findLoadedClass = method;
+			} catch(NoSuchMethodException
+						| NoSuchFieldException
+						| SecurityException ex) {
+				throw new IllegalStateException("Unable to access findLoadedClass method", ex);
+			}
+		}
+		
+		return method_findLoadedClass;
+	}
+	
+	private static final ClassPresenceCache of(ClassLoader loader) {
+		return caches.computeIfAbsent(loader, (l) -> new ClassPresenceCache());
+	}
+	
+	private static final Class<?> findLoadedClass(ClassLoader loader, String name) {
+		MethodHandle handle;
+		
+		try {
+			if((handle = handle_findLoadedClass) == null) {
+				return (Class<?>) getMethod_findLoadedClass().invoke(loader, name);
+			}
+			
+			return (Class<?>) handle.invokeExact(loader, name);
+		} catch(IllegalAccessException
+					| IllegalArgumentException
+					| InvocationTargetException ex) {
+			throw new IllegalStateException("Unable to find a loaded class: " + name, ex);
+		} catch(RuntimeException | Error ex) {
+			throw ex;
+		} catch(Throwable ex) {
+			throw new IllegalStateException("Unable to find a loaded class: " + name, ex);
+		}
+	}
+	
+	/**
+	 * Checks whether a class with the given {@code name} is present, i.e.
+	 * can be loaded, in the given {@code loader}.
+	 * @param loader the class loader
+	 * @param name the class name
+	 * @return {@code true}, if the class is present, otherwise {@code false}.
+	 */
+	public static final boolean isPresent(ClassLoader loader, String name) {
+		return isPresent(loader, name, false);
+	}
+	
+	/**
+	 * Checks whether a class with the given {@code name} is present, i.e.
+	 * can be loaded, in the given {@code loader}. If the class is local, i.e.
+	 * it can be defined only by this library, such as a class in a package
+	 * of a module that is being loaded, only the already loaded classes
+	 * of the loader and its parents are checked and the class is never
+	 * looked up using {@linkplain Class#forName(String, boolean, ClassLoader)},
+	 * which would throw an exception for a class that is not defined yet.
+	 * @param loader the class loader
+	 * @param name the class name
+	 * @param local whether the class is local
+	 * @return {@code true}, if the class is present, otherwise {@code false}.
+	 */
+	public static final boolean isPresent(ClassLoader loader, String name, boolean local) {
+		ClassPresenceCache cache = of(loader);
+		
+		if(cache.present.contains(name)) {
+			return true;
+		}
+		
+		// The class may have been defined since, e.g. by the class loader itself
+		if(isLoaded(loader, name)) {
+			cache.present.add(name);
+			cache.absent.remove(name);
+			return true;
+		}
+		
+		if(local || cache.absent.contains(name)) {
+			return false;
+		}
+		
+		try {
+			Class.forName(name, false, loader);
+			cache.present.add(name);
+			return true;
+		} catch(ClassNotFoundException ex) {
+			cache.absent.add(name);
+			return false;
+		}
+	}
+	
+	private static final boolean isLoaded(ClassLoader loader, String name) {
+		for(ClassLoader current = loader; current != null; current = current.getParent()) {
+			if(findLoadedClass(current, name) != null) {
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Marks a class with the given {@code name} as present in the given
+	 * {@code loader}. This should be called whenever a class is defined.
+	 * @param loader the class loader
+	 * @param name the class name
+	 */
+	public static final void markDefined(ClassLoader loader, String name) {
+		ClassPresenceCache cache = of(loader);
+		cache.present.add(name);
+		cache.absent.remove(name);
+	}
+	
+	/**
+	 * Forgets all classes known to be absent in the given {@code loader}.
+	 * This should be called whenever new classes may become visible through
+	 * the class loader without being defined by this library, e.g. when
+	 * a module is registered in it.
+	 * @param loader the class loader
+	 */
+	public static final void clearAbsent(ClassLoader loader) {
+		ClassPresenceCache cache = caches.get(loader);
+		
+		if(cache != null) {
+			cache.absent.clear();
+		}
+	}
+}
\ No newline at end of file
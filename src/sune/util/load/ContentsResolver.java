@@ -1,7 +1,113 @@
 package sune.util.load;
 
+import java.io.IOException;
+import java.lang.module.ModuleReader;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+
+/**
+ * Resolves contents of files, usually classes, given by their paths.
+ * @author Sune
+ * @see RootClassLoader
+ */
 @FunctionalInterface
 public interface ContentsResolver {
 	
+	/**
+	 * Gets bytes of a file located at the given {@code path}.
+	 * @param path the path to the file
+	 * @return The content of the file as a byte array.
+	 */
 	byte[] bytes(String path) throws Exception;
+	
+	/**
+	 * Gets a buffer with the content of a file located at the given {@code path}.
+	 * The buffer should be passed to {@linkplain #release(ByteBuffer)} once it
+	 * is no longer used. By default, the buffer wraps the result of
+	 * {@linkplain #bytes(String)}.
+	 * @param path the path to the file
+	 * @return The content of the file as a buffer.
+	 */
+	default ByteBuffer buffer(String path) throws Exception {
+		return ByteBuffer.wrap(bytes(path));
+	}
+	
+	/**
+	 * Releases the given {@code buffer} obtained by {@linkplain #buffer(String)}.
+	 * By default, this method does nothing.
+	 * @param buffer the buffer
+	 */
+	default void release(ByteBuffer buffer) {
+		// By default, do nothing
+	}
+	
+	/**
+	 * Hints that a file located at the given {@code path} will be requested
+	 * soon, so that its content may be obtained in advance. By default, this
+	 * method does nothing.
+	 * @param path the path to the file
+	 */
+	default void prefetch(String path) {
+		// By default, do nothing
+	}
+	
+	/**
+	 * Hints that a file located at the given {@code path}, that was passed to
+	 * {@linkplain #prefetch(String)}, will not be requested after all, so that
+	 * its content obtained in advance may be released. By default, this method
+	 * does nothing.
+	 * @param path the path to the file
+	 */
+	default void discard(String path) {
+		// By default, do nothing
+	}
+	
+	/**
+	 * Creates a resolver that reads contents using the given module {@code reader}.
+	 * The buffers are obtained directly from the reader, without copying them.
+	 * @param reader the module reader
+	 * @return The resolver.
+	 */
+	static ContentsResolver of(ModuleReader reader) {
+		Objects.requireNonNull(reader);
+		
+		return new ContentsResolver() {
+			
+			@Override
+			public byte[] bytes(String path) throws Exception {
+				ByteBuffer buffer = buffer(path);
+				
+				try {
+					byte[] bytes = new byte[buffer.remaining()];
+					buffer.duplicate().get(bytes);
+					return bytes;
+				} finally {
+					release(buffer);
+				}
+			}
+			
+			@Override
+			public ByteBuffer buffer(String path) throws Exception {
+				return reader.read(path).orElseThrow(() -> new IOException("Unable to read: " + path));
+			}
+			
+			@Override
+			public void release(ByteBuffer buffer) {
+				reader.release(buffer);
+			}
+		};
+	}
+	
+	/**
+	 * Creates a resolver that reads contents of prefetched files using the given
+	 * {@code resolver} in the background, on the given {@code executor}.
+	 * @param resolver the resolver that actually reads the contents
+	 * @param executor the executor where to read the prefetched files
+	 * @return The prefetching resolver.
+	 * @see PrefetchingContentsResolver
+	 */
+	static PrefetchingContentsResolver prefetching(ContentsResolver resolver, Executor executor) {
+		return new PrefetchingContentsResolver(resolver, executor);
+	}
 }
\ No newline at end of file
@@ -0,0 +1,351 @@
+package sune.util.load;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * <p>
+ * Persistent index of class dependencies of a JAR file. For each class
+ * in the JAR file, the index contains its dependencies as obtained by
+ * {@linkplain RootAnalyzingClassLoader#dependencies(byte[])}, i.e. already
+ * filtered and sorted.
+ * </p>
+ * 
+ * <p>
+ * The index is stored in a file either next to the JAR file or in a given
+ * cache directory. It is keyed by the identity of the JAR file, that is its
+ * size, last modified time and CRCs of all entries in its central directory.
+ * When the stored index does not match the JAR file, or cannot be read, it is
+ * rebuilt and stored again. If the index cannot be stored, e.g. due to a
+ * read-only file system, it is still usable, but only in memory.
+ * </p>
+ * 
+ * <p>
+ * When an index is rebuilt, e.g. for a new version of the JAR file, only
+ * classes that were changed are analyzed again. The dependencies of a class
+ * are obtained from its bytes only, therefore the entries of the previous
+ * index, either the stale stored one or a given one, are reused for classes
+ * with the same CRC in the central directory of the JAR file.
+ * </p>
+ * 
+ * @author Sune
+ * @see RootAnalyzingClassLoader
+ */
+public final class DependencyIndex {
+	
+	private static final String FILE_EXTENSION = ".deps";
+	private static final int MAGIC   = 0x53444958; // SDIX
+	private static final int VERSION = 1;
+	
+	private final Path path;
+	private final JarIdentity identity;
+	private final Map<String, Entry> entries;
+	
+	private DependencyIndex(Path path, JarIdentity identity, Map<String, Entry> entries) {
+		this.path = path;
+		this.identity = identity;
+		this.entries = entries;
+	}
+	
+	/**
+	 * Gets a dependency index of a JAR file located at the given {@code jar}
+	 * path. The index file is located next to the JAR file.
+	 * @param jar the path of the JAR file
+	 * @return The dependency index.
+	 */
+	public static final DependencyIndex of(Path jar) throws IOException {
+		Path file = jar.toAbsolutePath();
+		return load(jar, file.resolveSibling(file.getFileName() + FILE_EXTENSION), null);
+	}
+	
+	/**
+	 * Gets a dependency index of a JAR file located at the given {@code jar}
+	 * path. The index file is located in the given {@code cacheDir} directory.
+	 * @param jar the path of the JAR file
+	 * @param cacheDir the directory where to store the index file
+	 * @return The dependency index.
+	 */
+	public static final DependencyIndex of(Path jar, Path cacheDir) throws IOException {
+		Path file = jar.toAbsolutePath().normalize();
+		String name = String.format("%s-%08x%s", file.getFileName(), file.toString().hashCode(), FILE_EXTENSION);
+		return load(jar, cacheDir.resolve(name), null);
+	}
+	
+	/**
+	 * Gets a dependency index of a JAR file located at the given {@code jar}
+	 * path, that is a new version of a JAR file of the given {@code previous}
+	 * index. The index file is located next to the JAR file. If the index has
+	 * to be rebuilt, the dependencies of classes that were not changed since
+	 * the previous version are reused, so only the changed classes are analyzed.
+	 * @param jar the path of the JAR file
+	 * @param previous the dependency index of the previous version, may be {@code null}
+	 * @return The dependency index.
+	 */
+	public static final DependencyIndex update(Path jar, DependencyIndex previous) throws IOException {
+		Path file = jar.toAbsolutePath();
+		return load(jar, file.resolveSibling(file.getFileName() + FILE_EXTENSION), previous);
+	}
+	
+	private static final DependencyIndex load(Path jar, Path indexFile, DependencyIndex previous)
+			throws IOException {
+		Objects.requireNonNull(jar);
+		
+		try(ZipFile zip = new ZipFile(jar.toFile())) {
+			JarIdentity identity = JarIdentity.of(jar, zip);
+			DependencyIndex index = read(indexFile);
+			
+			if(index == null || !index.identity.equals(identity)) {
+				// Reuse the stale stored index, if there is no previous one
+				index = build(indexFile, identity, zip, previous != null ? previous : index);
+				index.write();
+			}
+			
+			return index;
+		}
+	}
+	
+	private static final DependencyIndex read(Path file) {
+		if(!Files.isRegularFile(file)) {
+			return null;
+		}
+		
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			long size = Files.size(file);
+			
+			if(in.readInt() != MAGIC || in.readInt() != VERSION) {
+				return null; // Not an index file at all
+			}
+			
+			JarIdentity identity = new JarIdentity(in.readLong(), in.readLong(), in.readLong());
+			
+			// Each name is stored in at least 2 bytes
+			String[] names = new String[checkCount(in.readInt(), size, 2)];
+			for(int i = 0; i < names.length; ++i) {
+				names[i] = in.readUTF();
+			}
+			
+			// Each entry is stored in at least 10 bytes
+			int count = checkCount(in.readInt(), size, 10);
+			Map<String, Entry> entries = new HashMap<>(count * 4 / 3 + 1);
+			for(int i = 0; i < count; ++i) {
+				String path = in.readUTF();
+				int crc = in.readInt();
+				String[] dependencies = new String[checkCount(in.readInt(), size, 4)];
+				
+				for(int k = 0; k < dependencies.length; ++k) {
+					dependencies[k] = names[in.readInt()];
+				}
+				
+				entries.put(path, new Entry(crc, List.of(dependencies)));
+			}
+			
+			return new DependencyIndex(file, identity, entries);
+		} catch(IOException | RuntimeException ex) {
+			return null; // Corrupted, will be rebuilt
+		}
+	}
+	
+	/**
+	 * Checks that the given {@code count} of items read from an index file,
+	 * each stored in at least {@code itemSize} bytes, fits in the file of
+	 * the given {@code size}, so that a corrupted count does not cause a huge
+	 * allocation.
+	 */
+	private static final int checkCount(int count, long size, int itemSize) throws IOException {
+		if(count < 0 || (long) count * itemSize > size) {
+			throw new IOException("Invalid count: " + count);
+		}
+		
+		return count;
+	}
+	
+	private static final DependencyIndex build(Path file, JarIdentity identity, ZipFile zip,
+			DependencyIndex previous) throws IOException {
+		Map<String, Entry> entries = new HashMap<>();
+		
+		for(Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements();) {
+			ZipEntry entry = e.nextElement();
+			String path = entry.getName();
+			
+			if(entry.isDirectory() || !RootClassLoader.isClassFile(path)) {
+				continue;
+			}
+			
+			// The CRC is read from the central directory, the class is not read at all
+			Entry cached = previous != null ? previous.entries.get(path) : null;
+			if(cached != null && cached.crc == (int) entry.getCrc()) {
+				entries.put(path, cached);
+				continue;
+			}
+			
+			byte[] bytes;
+			try(InputStream stream = zip.getInputStream(entry)) {
+				bytes = stream.readAllBytes();
+			}
+			
+			List<String> dependencies = RootAnalyzingClassLoader.analyze(ByteBuffer.wrap(bytes));
+			entries.put(path, new Entry((int) entry.getCrc(), List.copyOf(dependencies)));
+		}
+		
+		return new DependencyIndex(file, identity, entries);
+	}
+	
+	private final void write() {
+		Map<String, Integer> indexes = new HashMap<>();
+		List<String> names = new ArrayList<>();
+		
+		for(Entry entry : entries.values()) {
+			for(String name : entry.dependencies) {
+				if(indexes.putIfAbsent(name, names.size()) == null) {
+					names.add(name);
+				}
+			}
+		}
+		
+		Path temp = null;
+		try {
+			Files.createDirectories(path.toAbsolutePath().getParent());
+			temp = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+			
+			try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeLong(identity.size);
+				out.writeLong(identity.lastModified);
+				out.writeLong(identity.crcs);
+				out.writeInt(names.size());
+				
+				for(String name : names) {
+					out.writeUTF(name);
+				}
+				
+				out.writeInt(entries.size());
+				for(Map.Entry<String, Entry> pair : entries.entrySet()) {
+					Entry entry = pair.getValue();
+					out.writeUTF(pair.getKey());
+					out.writeInt(entry.crc);
+					out.writeInt(entry.dependencies.size());
+					
+					for(String name : entry.dependencies) {
+						out.writeInt(indexes.get(name));
+					}
+				}
+			}
+			
+			try {
+				Files.move(temp, path, ATOMIC_MOVE, REPLACE_EXISTING);
+			} catch(AtomicMoveNotSupportedException ex) {
+				Files.move(temp, path, REPLACE_EXISTING);
+			}
+			
+			temp = null;
+		} catch(IOException ex) {
+			// Unable to store the index, it will be used only in memory
+		} finally {
+			if(temp != null) {
+				try {
+					Files.deleteIfExists(temp);
+				} catch(IOException ex) {
+					// Ignore
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Gets the dependencies of a class located at the given {@code path}.
+	 * @param path the path of the class
+	 * @return The dependencies of the class, already filtered and sorted, or
+	 * {@code null}, if the class is not present in the index.
+	 */
+	public List<String> dependencies(String path) {
+		Entry entry = entries.get(path);
+		return entry != null ? entry.dependencies : null;
+	}
+	
+	/**
+	 * Gets paths of all classes present in the index.
+	 * @return The paths of the classes.
+	 */
+	public Set<String> paths() {
+		return Collections.unmodifiableSet(entries.keySet());
+	}
+	
+	/**
+	 * Gets the path of the index file.
+	 * @return The path of the index file.
+	 */
+	public Path path() {
+		return path;
+	}
+	
+	private static final class Entry {
+		
+		final int crc;
+		final List<String> dependencies;
+		
+		Entry(int crc, List<String> dependencies) {
+			this.crc = crc;
+			this.dependencies = dependencies;
+		}
+	}
+	
+	private static final class JarIdentity {
+		
+		final long size;
+		final long lastModified;
+		final long crcs;
+		
+		JarIdentity(long size, long lastModified, long crcs) {
+			this.size = size;
+			this.lastModified = lastModified;
+			this.crcs = crcs;
+		}
+		
+		static final JarIdentity of(Path jar, ZipFile zip) throws IOException {
+			long hash = 0xcbf29ce484222325L; // FNV-1a offset basis
+			
+			for(Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements();) {
+				ZipEntry entry = e.nextElement();
+				hash = (hash ^ entry.getName().hashCode()) * 0x100000001b3L;
+				hash = (hash ^ entry.getCrc()) * 0x100000001b3L;
+			}
+			
+			return new JarIdentity(Files.size(jar), Files.getLastModifiedTime(jar).toMillis(), hash);
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if(this == obj) return true;
+			if(!(obj instanceof JarIdentity)) return false;
+			JarIdentity other = (JarIdentity) obj;
+			return size == other.size && lastModified == other.lastModified && crcs == other.crcs;
+		}
+		
+		@Override
+		public int hashCode() {
+			return Objects.hash(size, lastModified, crcs);
+		}
+	}
+}
\ No newline at end of file
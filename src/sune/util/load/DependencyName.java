@@ -0,0 +1,157 @@
+package sune.util.load;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Reusable view of a dependency name located in the bytes of a class.
+ * The name is presented as a binary name, i.e. with dots instead of slashes,
+ * without materializing it as a String.
+ * </p>
+ * 
+ * <p>
+ * The raw name in the internal form, as present in the class file, can be
+ * obtained using the {@linkplain #buffer()}, {@linkplain #offset()} and
+ * {@linkplain #byteLength()} methods.
+ * </p>
+ * 
+ * @author Sune
+ * @see DependencyVisitor
+ */
+public final class DependencyName implements CharSequence {
+	
+	private ByteBuffer buffer;
+	private int offset;
+	private int byteLength;
+	private int length;
+	private boolean ascii;
+	private char[] chars = new char[64];
+	
+	DependencyName() {
+	}
+	
+	final DependencyName reset(ByteBuffer buffer, int offset, int byteLength) {
+		this.buffer = buffer;
+		this.offset = offset;
+		this.byteLength = byteLength;
+		
+		ascii = true;
+		for(int i = offset, e = offset + byteLength; i < e; ++i) {
+			if(buffer.get(i) < 0) {
+				ascii = false;
+				break;
+			}
+		}
+		
+		length = ascii ? byteLength : decode();
+		return this;
+	}
+	
+	private final int decode() {
+		if(chars.length < byteLength) {
+			chars = Arrays.copyOf(chars, byteLength);
+		}
+		
+		// Class files use the modified UTF-8 encoding
+		int len = 0;
+		for(int i = offset, e = offset + byteLength, b; i < e; ++i) {
+			b = buffer.get(i) & 0xff;
+			
+			if(b < 0x80) {
+				chars[len++] = (char) b;
+			} else if((b & 0xe0) == 0xc0) {
+				chars[len++] = (char) (((b & 0x1f) << 6) | (buffer.get(++i) & 0x3f));
+			} else {
+				chars[len++] = (char) (((b & 0x0f) << 12)
+						| ((buffer.get(++i) & 0x3f) << 6)
+						| (buffer.get(++i) & 0x3f));
+			}
+		}
+		
+		return len;
+	}
+	
+	/**
+	 * Gets the buffer containing the bytes of the class. The class starts
+	 * at the index zero of the buffer.
+	 * @return The buffer.
+	 */
+	public ByteBuffer buffer() {
+		return buffer;
+	}
+	
+	/**
+	 * Gets the offset of the raw name in the {@linkplain #buffer() buffer}.
+	 * @return The offset.
+	 */
+	public int offset() {
+		return offset;
+	}
+	
+	/**
+	 * Gets the length of the raw name in the {@linkplain #buffer() buffer}
+	 * in bytes.
+	 * @return The length in bytes.
+	 */
+	public int byteLength() {
+		return byteLength;
+	}
+	
+	@Override
+	public int length() {
+		return length;
+	}
+	
+	@Override
+	public char charAt(int index) {
+		if(index < 0 || index >= length) {
+			throw new IndexOutOfBoundsException(index);
+		}
+		
+		char c = ascii ? (char) buffer.get(offset + index) : chars[index];
+		return c == '/' ? '.' : c;
+	}
+	
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		return toString().substring(start, end);
+	}
+	
+	/**
+	 * Checks whether this name starts with the given {@code prefix}.
+	 * @param prefix the prefix, in the binary name form
+	 * @return {@code true}, if this name starts with the prefix, otherwise
+	 * {@code false}.
+	 */
+	public boolean startsWith(CharSequence prefix) {
+		int len = prefix.length();
+		
+		if(len > length) {
+			return false;
+		}
+		
+		for(int i = 0; i < len; ++i) {
+			if(charAt(i) != prefix.charAt(i)) {
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Materializes this name as a String.
+	 * @return The name as a String.
+	 */
+	@Override
+	public String toString() {
+		char[] dst = new char[length];
+		
+		for(int i = 0; i < length; ++i) {
+			dst[i] = charAt(i);
+		}
+		
+		return new String(dst);
+	}
+}
@@ -0,0 +1,26 @@
+package sune.util.load;
+
+/**
+ * Visitor of dependencies found by {@linkplain ClassDependencyAnalyzer}.
+ * @author Sune
+ * @see ClassDependencyAnalyzer#dependencies(java.nio.ByteBuffer, DependencyVisitor)
+ */
+@FunctionalInterface
+public interface DependencyVisitor {
+	
+	/**
+	 * <p>
+	 * Visits a single dependency. The same dependency may be visited multiple
+	 * times, if it is referenced from multiple places in the class.
+	 * </p>
+	 * 
+	 * <p>
+	 * Note that the given {@code name} is a reusable view that is valid only
+	 * during this call. To retain the name, use its {@linkplain DependencyName#toString()
+	 * toString} method.
+	 * </p>
+	 * 
+	 * @param name the view of the dependency's name
+	 */
+	void visit(DependencyName name);
+}
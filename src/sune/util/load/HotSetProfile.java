@@ -0,0 +1,251 @@
+package sune.util.load;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.IOException;
+import java.lang.module.ModuleReader;
+import java.lang.module.ModuleReference;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * <p>
+ * Profile of classes of modules that are actually used, i.e. the hot set
+ * of each module. The classes of a module are kept in the order in which
+ * they were used for the first time.
+ * </p>
+ * 
+ * <p>
+ * A profile is used with modules loaded lazily by {@linkplain ModuleLazyLoader}.
+ * In the recording mode, an {@linkplain #empty() empty} profile is given to
+ * the lazy loader, which records each class read from a module when it is
+ * requested, and the profile is {@linkplain #write(Path) written} at the end
+ * of the run. In the replay mode, a {@linkplain #read(Path) stored} profile is
+ * given to the lazy loader, which eagerly defines only the hot set of each
+ * module and leaves the rest of the module lazy. Classes that are used and
+ * are not in the hot set yet are still recorded, so the profile can be written
+ * again.
+ * </p>
+ * 
+ * <p>
+ * The profile is stored as a text file with a header followed by lines
+ * of module names and paths of classes separated by a space.
+ * </p>
+ * 
+ * @author Sune
+ * @see ModuleLazyLoader#loadModule(java.nio.file.Path, String, ClassLoader, HotSetProfile)
+ */
+public final class HotSetProfile {
+	
+	private static final String HEADER = "sune-hot-set 1";
+	
+	private final Map<String, Set<String>> modules = new ConcurrentHashMap<>();
+	
+	private HotSetProfile() {
+	}
+	
+	/**
+	 * Creates a new empty profile, e.g. for recording.
+	 * @return The profile.
+	 */
+	public static final HotSetProfile empty() {
+		return new HotSetProfile();
+	}
+	
+	/**
+	 * Reads a profile stored in a file at the given {@code path}. If there is
+	 * no such file, or it is not a valid profile, an empty profile is returned,
+	 * so that it can be recorded instead.
+	 * @param path the path of the profile file
+	 * @return The profile.
+	 */
+	public static final HotSetProfile read(Path path) throws IOException {
+		HotSetProfile profile = new HotSetProfile();
+		
+		if(!Files.isRegularFile(path)) {
+			return profile;
+		}
+		
+		List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+		if(lines.isEmpty() || !lines.get(0).equals(HEADER)) {
+			return profile;
+		}
+		
+		for(int i = 1, l = lines.size(); i < l; ++i) {
+			String line = lines.get(i);
+			int index = line.indexOf(' ');
+			
+			if(index <= 0) {
+				continue;
+			}
+			
+			profile.record(line.substring(0, index), line.substring(index + 1));
+		}
+		
+		return profile;
+	}
+	
+	/**
+	 * Writes this profile to a file at the given {@code path}. The file is
+	 * replaced atomically, if supported by the file system.
+	 * @param path the path of the profile file
+	 */
+	public void write(Path path) throws IOException {
+		StringBuilder builder = new StringBuilder(HEADER).append('\n');
+		
+		for(String module : modules()) {
+			for(String clazz : classes(module)) {
+				builder.append(module).append(' ').append(clazz).append('\n');
+			}
+		}
+		
+		Path file = path.toAbsolutePath();
+		Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+		
+		try {
+			Files.write(temp, builder.toString().getBytes(StandardCharsets.UTF_8));
+			
+			try {
+				Files.move(temp, file, ATOMIC_MOVE, REPLACE_EXISTING);
+			} catch(AtomicMoveNotSupportedException ex) {
+				Files.move(temp, file, REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+	
+	/**
+	 * Records that a class located at the given {@code path} in a module with
+	 * the given {@code name} was used.
+	 * @param module the module's name
+	 * @param path the path of the class
+	 */
+	public void record(String module, String path) {
+		Set<String> classes = modules.computeIfAbsent(module, (k) -> new LinkedHashSet<>());
+		
+		synchronized(classes) {
+			classes.add(path);
+		}
+	}
+	
+	/**
+	 * Gets paths of the used classes of a module with the given {@code name},
+	 * in the order in which they were used for the first time.
+	 * @param module the module's name
+	 * @return The paths of the classes, the list is empty if no class
+	 * of the module was used.
+	 */
+	public List<String> classes(String module) {
+		Set<String> classes = modules.get(module);
+		
+		if(classes == null) {
+			return List.of();
+		}
+		
+		synchronized(classes) {
+			return new ArrayList<>(classes);
+		}
+	}
+	
+	/**
+	 * Gets names of all modules with at least one used class.
+	 * @return The set of names.
+	 */
+	public Set<String> modules() {
+		return Collections.unmodifiableSet(modules.keySet());
+	}
+	
+	/**
+	 * Wraps the given {@code reference} of a module with the given {@code name},
+	 * so that classes read from it are recorded in this profile.
+	 */
+	final ModuleReference recording(String name, ModuleReference reference) {
+		return new RecordingModuleReference(this, name, reference);
+	}
+	
+	/**
+	 * Wraps the given {@code reader} of a module with the given {@code name},
+	 * so that classes read from it are recorded in this profile.
+	 */
+	final ModuleReader recording(String name, ModuleReader reader) {
+		return new RecordingModuleReader(this, name, reader);
+	}
+	
+	private static final class RecordingModuleReference extends ModuleReference {
+		
+		private final HotSetProfile profile;
+		private final String name;
+		private final ModuleReference reference;
+		
+		RecordingModuleReference(HotSetProfile profile, String name, ModuleReference reference) {
+			super(reference.descriptor(), reference.location().orElse(null));
+			this.profile = profile;
+			this.name = name;
+			this.reference = reference;
+		}
+		
+		@Override
+		public ModuleReader open() throws IOException {
+			return profile.recording(name, reference.open());
+		}
+	}
+	
+	private static final class RecordingModuleReader implements ModuleReader {
+		
+		private final HotSetProfile profile;
+		private final String name;
+		private final ModuleReader reader;
+		
+		RecordingModuleReader(HotSetProfile profile, String name, ModuleReader reader) {
+			this.profile = profile;
+			this.name = name;
+			this.reader = reader;
+		}
+		
+		@Override
+		public Optional<URI> find(String name) throws IOException {
+			return reader.find(name);
+		}
+		
+		@Override
+		public Optional<ByteBuffer> read(String name) throws IOException {
+			Optional<ByteBuffer> buffer = reader.read(name);
+			
+			if(buffer.isPresent() && RootClassLoader.isClassFile(name)) {
+				profile.record(this.name, name);
+			}
+			
+			return buffer;
+		}
+		
+		@Override
+		public void release(ByteBuffer buffer) {
+			reader.release(buffer);
+		}
+		
+		@Override
+		public Stream<String> list() throws IOException {
+			return reader.list();
+		}
+		
+		@Override
+		public void close() throws IOException {
+			reader.close();
+		}
+	}
+}
\ No newline at end of file
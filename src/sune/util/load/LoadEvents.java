@@ -0,0 +1,165 @@
+package sune.util.load;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * <p>
+ * Java Flight Recorder events of module and class loading phases.
+ * </p>
+ * 
+ * <p>
+ * All the events are disabled by default and must be enabled in a recording
+ * configuration, e.g. {@code -XX:StartFlightRecording:settings=...} with
+ * a {@code .jfc} file enabling {@code sune.util.load.*} events. When no
+ * recording with the events enabled is active, the events are not committed
+ * and their fields are not even computed.
+ * </p>
+ * 
+ * <p>
+ * The {@code jdk.jfr} module is optional. When it is not present, e.g. in
+ * a runtime image without it, or when Flight Recorder was not started yet,
+ * no event is created at all, see {@linkplain #enabled()}, since creating
+ * an event would start Flight Recorder itself.
+ * </p>
+ * 
+ * @author Sune
+ */
+final class LoadEvents {
+	
+	private static final String CATEGORY = "Sune Utils";
+	private static final String SUBCATEGORY = "Load";
+	
+	/**
+	 * Whether the events can be created, i.e. the {@code jdk.jfr} module is
+	 * present and readable. The event classes must not be used otherwise.
+	 */
+	private static final boolean AVAILABLE = isAvailable();
+	
+	// Forbid anyone to create an instance of this class
+	private LoadEvents() {
+	}
+	
+	private static final boolean isAvailable() {
+		Module module = LoadEvents.class.getModule();
+		return ModuleLayer.boot().findModule("jdk.jfr").map(module::canRead).orElse(false);
+	}
+	
+	/**
+	 * Checks whether an event should be created, i.e. the {@code jdk.jfr} module
+	 * is available and Flight Recorder is already initialized, e.g. by a recording
+	 * started on the command line or later using {@code jcmd}. The check itself
+	 * does not start Flight Recorder.
+	 * @return {@code true}, if an event should be created, otherwise {@code false}.
+	 */
+	static final boolean enabled() {
+		return AVAILABLE && FlightRecorder.isInitialized();
+	}
+	
+	@Name("sune.util.load.ModuleResolve")
+	@Label("Module Resolve")
+	@Description("Resolution and registration of a module by ModuleLoader")
+	@Category({ CATEGORY, SUBCATEGORY })
+	@Enabled(false)
+	static final class ModuleResolveEvent extends Event {
+		
+		@Label("Module Name")
+		String moduleName;
+		
+		@Label("Path")
+		String path;
+		
+		@Label("Success")
+		boolean success;
+	}
+	
+	@Name("sune.util.load.ModuleLazyRegister")
+	@Label("Module Lazy Registration")
+	@Description("Lazy registration of a module in a class loader by ModuleLazyLoader")
+	@Category({ CATEGORY, SUBCATEGORY })
+	@Enabled(false)
+	static final class ModuleLazyRegisterEvent extends Event {
+		
+		@Label("Module Name")
+		String moduleName;
+		
+		@Label("Path")
+		String path;
+		
+		@Label("Class Loader")
+		Class<?> loaderClass;
+	}
+	
+	@Name("sune.util.load.ClassAnalysis")
+	@Label("Class Analysis")
+	@Description("Analysis of dependencies of a class by ClassDependencyAnalyzer")
+	@Category({ CATEGORY, SUBCATEGORY })
+	@StackTrace(false)
+	@Enabled(false)
+	static final class ClassAnalysisEvent extends Event {
+		
+		@Label("Class Name")
+		String className;
+		
+		@Label("Class Size")
+		@DataAmount
+		int size;
+		
+		@Label("Dependencies")
+		@Description("Number of visited dependencies, including duplicates")
+		int dependencies;
+	}
+	
+	@Name("sune.util.load.ClassDefine")
+	@Label("Class Define")
+	@Description("Attempt to define a class, successful or not")
+	@Category({ CATEGORY, SUBCATEGORY })
+	@StackTrace(false)
+	@Enabled(false)
+	static final class ClassDefineEvent extends Event {
+		
+		@Label("Class Name")
+		String className;
+		
+		@Label("Class Size")
+		@DataAmount
+		int size;
+		
+		@Label("Class Loader")
+		Class<?> loaderClass;
+		
+		@Label("Success")
+		boolean success;
+		
+		@Label("Missing Class")
+		@Description("Name of the missing class, if the class requires a class that is not defined yet")
+		String missingClass;
+		
+		@Label("Error")
+		String error;
+	}
+	
+	@Name("sune.util.load.ZIPLoad")
+	@Label("ZIP Load")
+	@Description("Loading of a whole module by ZIPLoader")
+	@Category({ CATEGORY, SUBCATEGORY })
+	@Enabled(false)
+	static final class ZIPLoadEvent extends Event {
+		
+		@Label("Module Name")
+		String moduleName;
+		
+		@Label("Path")
+		String path;
+		
+		@Label("Success")
+		boolean success;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,87 @@
+package sune.util.load;
+
+import java.nio.file.Path;
+
+/**
+ * <p>
+ * Listener of events that occur while modules and classes are loaded.
+ * All methods do nothing by default, therefore an implementation may
+ * override only the methods of events it is interested in.
+ * </p>
+ * 
+ * <p>
+ * Listeners are registered using {@linkplain LoadListeners#add(LoadListener)}.
+ * The methods are called synchronously, on the thread that caused the event,
+ * possibly concurrently from multiple threads, so they should be fast,
+ * thread-safe and should not throw. Durations are in nanoseconds.
+ * </p>
+ * 
+ * @author Sune
+ * @see LoadMetrics
+ */
+public interface LoadListener {
+	
+	/**
+	 * Called when a module is registered by {@linkplain ModuleLoader}.
+	 * @param name the module's name
+	 * @param nanos the duration of the registration
+	 */
+	default void moduleRegistered(String name, long nanos) {
+	}
+	
+	/**
+	 * Called when contents of a module are loaded by {@linkplain ModuleContentLoader}.
+	 * @param name the module's name
+	 * @param classes the number of classes actually defined, without classes already present
+	 * @param nanos the duration of the loading
+	 */
+	default void moduleContentLoaded(String name, int classes, long nanos) {
+	}
+	
+	/**
+	 * Called when a file is loaded by {@linkplain ZIPLoader}, including
+	 * the registration of its module and the loading of its contents.
+	 * @param path the path of the file
+	 * @param name the module's name
+	 * @param nanos the duration of the loading
+	 */
+	default void zipLoaded(Path path, String name, long nanos) {
+	}
+	
+	/**
+	 * Called when contents of a class are obtained.
+	 * @param path the path of the class
+	 * @param bytes the size of the contents
+	 * @param nanos the duration of the reading
+	 * @param cached whether the contents were taken from a {@linkplain ClassBytesCache}
+	 */
+	default void classRead(String path, int bytes, long nanos, boolean cached) {
+	}
+	
+	/**
+	 * Called when dependencies of a class are obtained by {@linkplain RootAnalyzingClassLoader}.
+	 * @param path the path of the class
+	 * @param dependencies the number of dependencies
+	 * @param nanos the duration of the analysis
+	 * @param indexed whether the dependencies were taken from a {@linkplain DependencyIndex}
+	 */
+	default void classAnalyzed(String path, int dependencies, long nanos, boolean indexed) {
+	}
+	
+	/**
+	 * Called when a class is defined.
+	 * @param name the class name
+	 * @param nanos the duration of the definition
+	 */
+	default void classDefined(String name, long nanos) {
+	}
+	
+	/**
+	 * Called when a class cannot be defined yet, since another class it requires
+	 * is missing, so that it must be defined again later.
+	 * @param name the class name
+	 * @param missing the name of the missing class, as reported by the JVM
+	 */
+	default void classRetried(String name, String missing) {
+	}
+}
\ No newline at end of file
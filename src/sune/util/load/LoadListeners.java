@@ -0,0 +1,114 @@
+package sune.util.load;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * <p>
+ * Registry of {@linkplain LoadListener}s.
+ * </p>
+ * 
+ * <p>
+ * The listeners are kept in an array that is replaced on each change, therefore
+ * dispatching an event needs no locking. When no listener is registered,
+ * the instrumented code only checks {@linkplain #enabled()} and does not even
+ * measure the time.
+ * </p>
+ * 
+ * @author Sune
+ */
+public final class LoadListeners {
+	
+	private static final LoadListener[] EMPTY = new LoadListener[0];
+	
+	private static volatile LoadListener[] listeners = EMPTY;
+	
+	// Forbid anyone to create an instance of this class
+	private LoadListeners() {
+	}
+	
+	/**
+	 * Registers the given {@code listener}. A listener registered multiple
+	 * times receives each event multiple times.
+	 * @param listener the listener
+	 */
+	public static final synchronized void add(LoadListener listener) {
+		Objects.requireNonNull(listener);
+		LoadListener[] array = Arrays.copyOf(listeners, listeners.length + 1);
+		array[array.length - 1] = listener;
+		listeners = array;
+	}
+	
+	/**
+	 * Unregisters the given {@code listener}, if registered.
+	 * @param listener the listener
+	 * @return {@code true}, if the listener was registered, otherwise {@code false}.
+	 */
+	public static final synchronized boolean remove(LoadListener listener) {
+		LoadListener[] array = listeners;
+		
+		for(int i = 0, l = array.length; i < l; ++i) {
+			if(array[i] == listener) {
+				LoadListener[] copy = new LoadListener[l - 1];
+				System.arraycopy(array, 0, copy, 0, i);
+				System.arraycopy(array, i + 1, copy, i, l - i - 1);
+				listeners = l == 1 ? EMPTY : copy;
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Checks whether any listener is registered.
+	 * @return {@code true}, if at least one listener is registered,
+	 * otherwise {@code false}.
+	 */
+	public static final boolean enabled() {
+		return listeners.length != 0;
+	}
+	
+	static final void moduleRegistered(String name, long nanos) {
+		for(LoadListener listener : listeners) {
+			listener.moduleRegistered(name, nanos);
+		}
+	}
+	
+	static final void moduleContentLoaded(String name, int classes, long nanos) {
+		for(LoadListener listener : listeners) {
+			listener.moduleContentLoaded(name, classes, nanos);
+		}
+	}
+	
+	static final void zipLoaded(Path path, String name, long nanos) {
+		for(LoadListener listener : listeners) {
+			listener.zipLoaded(path, name, nanos);
+		}
+	}
+	
+	static final void classRead(String path, int bytes, long nanos, boolean cached) {
+		for(LoadListener listener : listeners) {
+			listener.classRead(path, bytes, nanos, cached);
+		}
+	}
+	
+	static final void classAnalyzed(String path, int dependencies, long nanos, boolean indexed) {
+		for(LoadListener listener : listeners) {
+			listener.classAnalyzed(path, dependencies, nanos, indexed);
+		}
+	}
+	
+	static final void classDefined(String name, long nanos) {
+		for(LoadListener listener : listeners) {
+			listener.classDefined(name, nanos);
+		}
+	}
+	
+	static final void classRetried(String name, String missing) {
+		for(LoadListener listener : listeners) {
+			listener.classRetried(name, missing);
+		}
+	}
+}
\ No newline at end of file
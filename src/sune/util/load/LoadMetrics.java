@@ -0,0 +1,192 @@
+package sune.util.load;
+
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ * Listener that aggregates load events into counters. The counters are
+ * updated without locking, so the metrics may be registered permanently,
+ * and their values can be obtained at any time as a {@linkplain Snapshot}.
+ * </p>
+ * 
+ * <p>
+ * Example:
+ * </p>
+ * 
+ * <pre>
+ * LoadMetrics metrics = new LoadMetrics();
+ * LoadListeners.add(metrics);
+ * // Load modules...
+ * Map&lt;String, Long&gt; values = metrics.snapshot().toMap();
+ * </pre>
+ * 
+ * @author Sune
+ */
+public final class LoadMetrics implements LoadListener {
+	
+	private final LongAdder modulesRegistered = new LongAdder();
+	private final LongAdder moduleRegisterNanos = new LongAdder();
+	private final LongAdder modulesLoaded = new LongAdder();
+	private final LongAdder moduleLoadNanos = new LongAdder();
+	private final LongAdder zipsLoaded = new LongAdder();
+	private final LongAdder zipLoadNanos = new LongAdder();
+	private final LongAdder classesRead = new LongAdder();
+	private final LongAdder bytesRead = new LongAdder();
+	private final LongAdder readNanos = new LongAdder();
+	private final LongAdder cacheHits = new LongAdder();
+	private final LongAdder classesAnalyzed = new LongAdder();
+	private final LongAdder analyzeNanos = new LongAdder();
+	private final LongAdder indexHits = new LongAdder();
+	private final LongAdder classesDefined = new LongAdder();
+	private final LongAdder defineNanos = new LongAdder();
+	private final LongAdder retries = new LongAdder();
+	
+	/**
+	 * Creates new metrics with all the counters set to zero.
+	 */
+	public LoadMetrics() {
+	}
+	
+	@Override
+	public void moduleRegistered(String name, long nanos) {
+		modulesRegistered.increment();
+		moduleRegisterNanos.add(nanos);
+	}
+	
+	@Override
+	public void moduleContentLoaded(String name, int classes, long nanos) {
+		modulesLoaded.increment();
+		moduleLoadNanos.add(nanos);
+	}
+	
+	@Override
+	public void zipLoaded(Path path, String name, long nanos) {
+		zipsLoaded.increment();
+		zipLoadNanos.add(nanos);
+	}
+	
+	@Override
+	public void classRead(String path, int bytes, long nanos, boolean cached) {
+		if(cached) {
+			cacheHits.increment();
+			return; // Nothing was actually read
+		}
+		
+		classesRead.increment();
+		bytesRead.add(bytes);
+		readNanos.add(nanos);
+	}
+	
+	@Override
+	public void classAnalyzed(String path, int dependencies, long nanos, boolean indexed) {
+		classesAnalyzed.increment();
+		analyzeNanos.add(nanos);
+		
+		if(indexed) {
+			indexHits.increment();
+		}
+	}
+	
+	@Override
+	public void classDefined(String name, long nanos) {
+		classesDefined.increment();
+		defineNanos.add(nanos);
+	}
+	
+	@Override
+	public void classRetried(String name, String missing) {
+		retries.increment();
+	}
+	
+	/**
+	 * Gets the current values of all counters. The values are not an atomic
+	 * snapshot, if events occur concurrently.
+	 * @return The snapshot of the counters.
+	 */
+	public Snapshot snapshot() {
+		return new Snapshot(new long[] {
+			modulesRegistered.sum(), moduleRegisterNanos.sum(),
+			modulesLoaded.sum(), moduleLoadNanos.sum(),
+			zipsLoaded.sum(), zipLoadNanos.sum(),
+			classesRead.sum(), bytesRead.sum(), readNanos.sum(), cacheHits.sum(),
+			classesAnalyzed.sum(), analyzeNanos.sum(), indexHits.sum(),
+			classesDefined.sum(), defineNanos.sum(), retries.sum()
+		});
+	}
+	
+	/**
+	 * Resets all counters to zero.
+	 */
+	public void reset() {
+		for(LongAdder adder : new LongAdder[] {
+			modulesRegistered, moduleRegisterNanos, modulesLoaded, moduleLoadNanos,
+			zipsLoaded, zipLoadNanos, classesRead, bytesRead, readNanos, cacheHits,
+			classesAnalyzed, analyzeNanos, indexHits, classesDefined, defineNanos, retries
+		}) {
+			adder.reset();
+		}
+	}
+	
+	/**
+	 * Immutable values of the counters of {@linkplain LoadMetrics}.
+	 * Durations are in nanoseconds.
+	 * @author Sune
+	 */
+	public static final class Snapshot {
+		
+		private static final String[] NAMES = {
+			"modules.registered", "modules.registerNanos",
+			"modules.loaded", "modules.loadNanos",
+			"zips.loaded", "zips.loadNanos",
+			"classes.read", "classes.bytesRead", "classes.readNanos", "classes.cacheHits",
+			"classes.analyzed", "classes.analyzeNanos", "classes.indexHits",
+			"classes.defined", "classes.defineNanos", "classes.retries"
+		};
+		
+		private final long[] values;
+		
+		private Snapshot(long[] values) {
+			this.values = values;
+		}
+		
+		public long modulesRegistered()   { return values[0];  }
+		public long moduleRegisterNanos() { return values[1];  }
+		public long modulesLoaded()       { return values[2];  }
+		public long moduleLoadNanos()     { return values[3];  }
+		public long zipsLoaded()          { return values[4];  }
+		public long zipLoadNanos()        { return values[5];  }
+		public long classesRead()         { return values[6];  }
+		public long bytesRead()           { return values[7];  }
+		public long readNanos()           { return values[8];  }
+		public long cacheHits()           { return values[9];  }
+		public long classesAnalyzed()     { return values[10]; }
+		public long analyzeNanos()        { return values[11]; }
+		public long indexHits()           { return values[12]; }
+		public long classesDefined()      { return values[13]; }
+		public long defineNanos()         { return values[14]; }
+		public long retries()             { return values[15]; }
+		
+		/**
+		 * Gets the values as a map of dot-separated names to values, e.g. to be
+		 * exported to another metrics system.
+		 * @return The map of values, in a stable order.
+		 */
+		public Map<String, Long> toMap() {
+			Map<String, Long> map = new LinkedHashMap<>(NAMES.length * 4 / 3 + 1);
+			
+			for(int i = 0; i < NAMES.length; ++i) {
+				map.put(NAMES[i], values[i]);
+			}
+			
+			return map;
+		}
+		
+		@Override
+		public String toString() {
+			return "LoadMetrics" + toMap();
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,304 @@
+package sune.util.load;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.module.ModuleReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * <p>
+ * Precomputed order in which classes of a JAR file can be defined, stored in
+ * the JAR file itself as the {@value #PATH} entry. Each class is preceded by
+ * all its supertypes located in the same JAR file, therefore the classes can be
+ * defined directly in this order, without any analysis and without retrying
+ * after a {@linkplain NoClassDefFoundError}.
+ * </p>
+ * 
+ * <p>
+ * The manifest also contains the CRC-32 of each class, so that a manifest
+ * that does not match the JAR file, e.g. after the classes were changed without
+ * generating the manifest again, can be detected, see {@linkplain ModuleContentLoader}.
+ * </p>
+ * 
+ * <p>
+ * The manifest is generated at packaging time, either by calling
+ * {@linkplain #generate(Path)} or by running this class with paths of JAR files
+ * as its arguments, e.g. using the {@code load-order} target in {@code build.xml}.
+ * </p>
+ * 
+ * @author Sune
+ */
+public final class LoadOrderManifest {
+	
+	/** Path of the manifest entry in a JAR file. */
+	public static final String PATH = "META-INF/sune-load-order";
+	
+	private static final String HEADER = "sune-load-order 1";
+	
+	private final Map<String, Integer> crcs;
+	
+	private LoadOrderManifest(Map<String, Integer> crcs) {
+		this.crcs = crcs;
+	}
+	
+	/**
+	 * Reads the manifest using the given module {@code reader}.
+	 * @param reader the reader of the module's contents
+	 * @return The manifest, or {@code null}, if the module contains no manifest,
+	 * or the manifest is not valid.
+	 */
+	public static final LoadOrderManifest read(ModuleReader reader) throws IOException {
+		Optional<ByteBuffer> optional = reader.read(PATH);
+		
+		if(!optional.isPresent()) {
+			return null;
+		}
+		
+		ByteBuffer buffer = optional.get();
+		String content;
+		try {
+			content = StandardCharsets.UTF_8.decode(buffer.duplicate()).toString();
+		} finally {
+			reader.release(buffer);
+		}
+		
+		return parse(content);
+	}
+	
+	private static final LoadOrderManifest parse(String content) {
+		String[] lines = content.split("\r?\n");
+		
+		if(lines.length == 0 || !lines[0].equals(HEADER)) {
+			return null;
+		}
+		
+		Map<String, Integer> crcs = new LinkedHashMap<>(lines.length * 4 / 3 + 1);
+		for(int i = 1; i < lines.length; ++i) {
+			String line = lines[i];
+			
+			if(line.isEmpty()) {
+				continue;
+			}
+			
+			int index = line.indexOf(' ');
+			if(index <= 0) {
+				return null;
+			}
+			
+			try {
+				crcs.put(line.substring(index + 1), Integer.parseUnsignedInt(line.substring(0, index), 16));
+			} catch(NumberFormatException ex) {
+				return null;
+			}
+		}
+		
+		return new LoadOrderManifest(crcs);
+	}
+	
+	private static final void visit(String path, Map<String, List<String>> supertypes, Set<String> visited,
+			Map<String, Integer> order, Map<String, Integer> crcs) {
+		if(!visited.add(path)) {
+			return;
+		}
+		
+		for(String supertype : supertypes.get(path)) {
+			String superPath = RootClassLoader.classNameToPath(supertype);
+			
+			// Only classes from the same JAR file must be ordered
+			if(supertypes.containsKey(superPath)) {
+				visit(superPath, supertypes, visited, order, crcs);
+			}
+		}
+		
+		order.put(path, crcs.get(path));
+	}
+	
+	/**
+	 * Computes the manifest of a JAR file located at the given {@code jar} path.
+	 * @param jar the path of the JAR file
+	 * @return The manifest.
+	 */
+	public static final LoadOrderManifest of(Path jar) throws IOException {
+		Map<String, List<String>> supertypes = new LinkedHashMap<>();
+		Map<String, Integer> crcs = new LinkedHashMap<>();
+		
+		try(ZipFile zip = new ZipFile(jar.toFile())) {
+			for(Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements();) {
+				ZipEntry entry = e.nextElement();
+				String path = entry.getName();
+				
+				if(entry.isDirectory() || !RootClassLoader.isClassFile(path)) {
+					continue;
+				}
+				
+				byte[] bytes;
+				try(InputStream stream = zip.getInputStream(entry)) {
+					bytes = stream.readAllBytes();
+				}
+				
+				CRC32 crc = new CRC32();
+				crc.update(bytes);
+				crcs.put(path, (int) crc.getValue());
+				supertypes.put(path, ClassDependencyAnalyzer.supertypes(ByteBuffer.wrap(bytes)));
+			}
+		}
+		
+		// Order the classes so that supertypes always precede their subtypes
+		Map<String, Integer> order = new LinkedHashMap<>(crcs.size() * 4 / 3 + 1);
+		Set<String> visited = new HashSet<>();
+		for(String path : supertypes.keySet()) {
+			visit(path, supertypes, visited, order, crcs);
+		}
+		
+		return new LoadOrderManifest(order);
+	}
+	
+	/**
+	 * Computes the manifest of a JAR file located at the given {@code jar} path
+	 * and stores it into the JAR file. Any existing manifest is replaced.
+	 * @param jar the path of the JAR file
+	 * @return The manifest.
+	 */
+	public static final LoadOrderManifest generate(Path jar) throws IOException {
+		LoadOrderManifest manifest = of(jar);
+		manifest.writeTo(jar);
+		return manifest;
+	}
+	
+	/**
+	 * Stores this manifest into a JAR file located at the given {@code jar} path.
+	 * The JAR file is rewritten, any existing manifest is replaced.
+	 * @param jar the path of the JAR file
+	 */
+	public void writeTo(Path jar) throws IOException {
+		Path file = jar.toAbsolutePath();
+		Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+		
+		try {
+			try(ZipFile zip = new ZipFile(file.toFile());
+				ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+				for(Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements();) {
+					ZipEntry entry = e.nextElement();
+					
+					if(entry.getName().equals(PATH)) {
+						continue; // Replace the existing manifest
+					}
+					
+					ZipEntry copy = new ZipEntry(entry);
+					copy.setCompressedSize(-1L); // May be compressed differently
+					out.putNextEntry(copy);
+					
+					try(InputStream stream = zip.getInputStream(entry)) {
+						stream.transferTo(out);
+					}
+					
+					out.closeEntry();
+				}
+				
+				out.putNextEntry(new ZipEntry(PATH));
+				write(out);
+				out.closeEntry();
+			}
+			
+			try {
+				Files.move(temp, file, ATOMIC_MOVE, REPLACE_EXISTING);
+			} catch(AtomicMoveNotSupportedException ex) {
+				Files.move(temp, file, REPLACE_EXISTING);
+			}
+			
+			temp = null;
+		} finally {
+			if(temp != null) {
+				Files.deleteIfExists(temp);
+			}
+		}
+	}
+	
+	/**
+	 * Writes this manifest to the given {@code out} stream.
+	 * @param out the output stream
+	 */
+	public void write(OutputStream out) throws IOException {
+		StringBuilder builder = new StringBuilder(HEADER).append('\n');
+		
+		for(Map.Entry<String, Integer> entry : crcs.entrySet()) {
+			builder.append(String.format("%08x", entry.getValue())).append(' ').append(entry.getKey()).append('\n');
+		}
+		
+		out.write(builder.toString().getBytes(StandardCharsets.UTF_8));
+	}
+	
+	/**
+	 * Gets paths of all classes in the order in which they should be defined.
+	 * @return The paths of the classes.
+	 */
+	public Set<String> paths() {
+		return Collections.unmodifiableSet(crcs.keySet());
+	}
+	
+	/**
+	 * Gets the CRC-32 of a class located at the given {@code path}.
+	 * @param path the path of the class
+	 * @return The CRC-32 of the class, or {@code null}, if the class is not
+	 * present in the manifest.
+	 */
+	public Integer crc(String path) {
+		return crcs.get(path);
+	}
+	
+	/**
+	 * Checks whether the given buffer contains the class located at the given
+	 * {@code path}, as it was when this manifest was generated.
+	 * @param path the path of the class
+	 * @param buffer the buffer containing the bytes of the class
+	 * @return {@code true}, if the class matches, otherwise {@code false}.
+	 */
+	public boolean matches(String path, ByteBuffer buffer) {
+		Integer expected = crcs.get(path);
+		
+		if(expected == null) {
+			return false;
+		}
+		
+		CRC32 crc = new CRC32();
+		crc.update(buffer.duplicate());
+		return expected == (int) crc.getValue();
+	}
+	
+	/**
+	 * Generates the manifest for each JAR file given by its path in the arguments.
+	 * @param args the paths of the JAR files
+	 */
+	public static void main(String[] args) throws IOException {
+		if(args.length == 0) {
+			System.err.println("Usage: LoadOrderManifest <jar>...");
+			System.exit(1);
+		}
+		
+		for(String arg : args) {
+			LoadOrderManifest manifest = generate(Path.of(arg));
+			System.out.println("Load order of " + manifest.crcs.size() + " classes written to " + arg);
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,121 @@
+package sune.util.load;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * State of loading that is shared across multiple calls of
+ * {@linkplain RootClassLoader#loadClass(String, LoadSession)}. It remembers
+ * classes that were already loaded and classes whose dependencies were
+ * already analyzed, so that they are not checked again by subsequent calls.
+ * </p>
+ * 
+ * <p>
+ * A single session must be used only with root class loaders that load
+ * classes into the same class loader. The session is thread-safe, classes
+ * defined within the session are guarded by per-name locks, so that a class
+ * requested by multiple threads at once is defined only once.
+ * </p>
+ * 
+ * @author Sune
+ * @see RootClassLoader
+ */
+public final class LoadSession {
+	
+	private final Set<String> loaded = ConcurrentHashMap.newKeySet();
+	private final Set<String> analyzed = ConcurrentHashMap.newKeySet();
+	private final Map<String, Object> locks = new ConcurrentHashMap<>();
+	private final AtomicInteger defined = new AtomicInteger();
+	private final Set<String> packages = ConcurrentHashMap.newKeySet();
+	
+	/**
+	 * Creates a new empty session.
+	 */
+	public LoadSession() {
+	}
+	
+	/**
+	 * Creates a new empty session with the given local packages, i.e. packages
+	 * whose classes are defined only within the session and cannot be loaded
+	 * through the parent class loaders, so they are never looked up there.
+	 * @param packages the names of the local packages
+	 */
+	public LoadSession(Collection<String> packages) {
+		addLocalPackages(packages);
+	}
+	
+	final boolean markLoaded(String name) {
+		boolean added = loaded.add(name);
+		// The lock is not needed anymore, since the class is already loaded
+		locks.remove(name);
+		return added;
+	}
+	
+	final void markDefined() {
+		defined.incrementAndGet();
+	}
+	
+	/**
+	 * Gets a lock that guards definition of a class with the given {@code name}.
+	 * The lock is discarded once the class is marked as loaded.
+	 */
+	final Object lock(String name) {
+		return locks.computeIfAbsent(name, (k) -> new Object());
+	}
+	
+	/**
+	 * Adds packages whose classes are defined only within this session,
+	 * i.e. they cannot be loaded through the parent class loaders.
+	 */
+	final void addLocalPackages(Collection<String> names) {
+		packages.addAll(names);
+	}
+	
+	/**
+	 * Checks whether a class with the given {@code name} is in one of the local
+	 * packages of this session.
+	 */
+	final boolean isLocal(String name) {
+		int index = name.lastIndexOf('.');
+		return index > 0 && packages.contains(name.substring(0, index));
+	}
+	
+	final boolean markAnalyzed(String name) {
+		return analyzed.add(name);
+	}
+	
+	final void unmarkAnalyzed(String name) {
+		analyzed.remove(name);
+	}
+	
+	/**
+	 * Checks whether a class with the given {@code name} was already loaded
+	 * in this session.
+	 * @param name the class name
+	 * @return {@code true}, if the class was loaded, otherwise {@code false}.
+	 */
+	public boolean isLoaded(String name) {
+		return loaded.contains(name);
+	}
+	
+	/**
+	 * Gets the number of classes loaded in this session.
+	 * @return The number of loaded classes.
+	 */
+	public int loadedCount() {
+		return loaded.size();
+	}
+	
+	/**
+	 * Gets the number of classes actually defined in this session, i.e. without
+	 * classes that were loaded in this session, but were already present.
+	 * @return The number of defined classes.
+	 */
+	public int definedCount() {
+		return defined.get();
+	}
+}
@@ -0,0 +1,399 @@
+package sune.util.load;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+import java.io.IOException;
+import java.lang.module.ModuleReader;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Stream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * <p>
+ * Module reader that reads contents of a JAR file by memory-mapping it.
+ * The central directory of the JAR file is indexed only once, when the reader
+ * is opened.
+ * </p>
+ * 
+ * <p>
+ * Entries that are stored, i.e. not compressed, are returned as read-only
+ * slices of the mapping, without any copying. Only deflated entries are
+ * inflated into new heap buffers. This makes the reader especially suitable
+ * for JAR files packaged with stored entries.
+ * </p>
+ * 
+ * <p>
+ * Note that this reader does not support multi-release JAR files, since it
+ * reads the entries as they are, see {@linkplain #isMultiRelease()}.
+ * </p>
+ * 
+ * @author Sune
+ * @see ModuleContentLoader
+ */
+public final class MappedJarReader implements ModuleReader {
+	
+	private static final int SIG_LOC    = 0x04034b50;
+	private static final int SIG_CEN    = 0x02014b50;
+	private static final int SIG_END    = 0x06054b50;
+	private static final int SIG_END64  = 0x06064b50;
+	private static final int SIG_LOC64  = 0x07064b50;
+	private static final int LOC_HEADER = 30;
+	private static final int CEN_HEADER = 46;
+	private static final int END_HEADER = 22;
+	
+	private static final int METHOD_STORED   = 0;
+	private static final int METHOD_DEFLATED = 8;
+	
+	private static final String FILE_MANIFEST = "META-INF/MANIFEST.MF";
+	
+	private final Path path;
+	private final URI uri;
+	private final Map<String, Entry> entries;
+	private volatile ByteBuffer mapping;
+	
+	private MappedJarReader(Path path, ByteBuffer mapping, Map<String, Entry> entries) {
+		this.path = path;
+		this.uri = path.toUri();
+		this.mapping = mapping;
+		this.entries = entries;
+	}
+	
+	/**
+	 * Opens a JAR file located at the given {@code path}, maps it into memory
+	 * and indexes its central directory.
+	 * @param path the path of the JAR file
+	 * @return The reader of the JAR file.
+	 */
+	public static final MappedJarReader open(Path path) throws IOException {
+		MappedByteBuffer mapping;
+		
+		try(FileChannel channel = FileChannel.open(path, READ)) {
+			long size = channel.size();
+			
+			if(size > Integer.MAX_VALUE) {
+				throw new IOException("File too large to be mapped: " + path);
+			}
+			
+			// The mapping stays valid even after the channel is closed
+			mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0L, size);
+		}
+		
+		ByteBuffer buffer = mapping.order(ByteOrder.LITTLE_ENDIAN);
+		return new MappedJarReader(path, buffer, index(buffer));
+	}
+	
+	/**
+	 * Opens a JAR file located at the given {@code path} as {@linkplain #open(Path)}
+	 * does, but only if it is a regular file that can be mapped and it is not
+	 * a multi-release JAR file.
+	 * @param path the path of the JAR file
+	 * @return The reader of the JAR file, or {@code null}, if the file cannot
+	 * be read by this reader.
+	 */
+	public static final MappedJarReader tryOpen(Path path) {
+		if(!Files.isRegularFile(path)) {
+			return null;
+		}
+		
+		MappedJarReader reader = null;
+		
+		try {
+			reader = open(path);
+			
+			if(!reader.isMultiRelease()) {
+				return reader;
+			}
+		} catch(IOException ex) {
+			// Unable to map the file
+		}
+		
+		if(reader != null) {
+			reader.close();
+		}
+		
+		return null;
+	}
+	
+	private static final int findEnd(ByteBuffer buffer) throws ZipException {
+		// The comment may be at most 65535 bytes long
+		for(int pos = buffer.limit() - END_HEADER, min = Math.max(0, pos - 0xffff); pos >= min; --pos) {
+			if(buffer.getInt(pos) == SIG_END) {
+				return pos;
+			}
+		}
+		
+		throw new ZipException("End of central directory not found");
+	}
+	
+	private static final Map<String, Entry> index(ByteBuffer buffer) throws ZipException {
+		int end = findEnd(buffer);
+		long count = buffer.getShort(end + 10) & 0xffff;
+		long offset = buffer.getInt(end + 16) & 0xffffffffL;
+		
+		if(count == 0xffff || offset == 0xffffffffL) {
+			int loc = end - 20;
+			
+			if(loc >= 0 && buffer.getInt(loc) == SIG_LOC64) {
+				int end64 = (int) buffer.getLong(loc + 8);
+				
+				if(buffer.getInt(end64) != SIG_END64) {
+					throw new ZipException("Invalid ZIP64 end of central directory");
+				}
+				
+				count = buffer.getLong(end64 + 32);
+				offset = buffer.getLong(end64 + 48);
+			}
+		}
+		
+		Map<String, Entry> entries = new LinkedHashMap<>((int) Math.min(count * 4 / 3 + 1, 1 << 20));
+		ByteBuffer names = buffer.duplicate();
+		int pos = (int) offset;
+		for(long i = 0; i < count; ++i) {
+			if(buffer.getInt(pos) != SIG_CEN) {
+				throw new ZipException("Invalid central directory header");
+			}
+			
+			int method = buffer.getShort(pos + 10) & 0xffff;
+			int crc = buffer.getInt(pos + 16);
+			long csize = buffer.getInt(pos + 20) & 0xffffffffL;
+			long size = buffer.getInt(pos + 24) & 0xffffffffL;
+			int nameLength = buffer.getShort(pos + 28) & 0xffff;
+			int extraLength = buffer.getShort(pos + 30) & 0xffff;
+			int commentLength = buffer.getShort(pos + 32) & 0xffff;
+			long local = buffer.getInt(pos + 42) & 0xffffffffL;
+			
+			if(size == 0xffffffffL || csize == 0xffffffffL || local == 0xffffffffL) {
+				// Actual values are in the ZIP64 extended information extra field
+				for(int e = pos + CEN_HEADER + nameLength, l = e + extraLength; e + 4 <= l;) {
+					int tag = buffer.getShort(e) & 0xffff;
+					int len = buffer.getShort(e + 2) & 0xffff;
+					
+					if(tag == 0x0001) {
+						int p = e + 4;
+						if(size  == 0xffffffffL) { size  = buffer.getLong(p); p += 8; }
+						if(csize == 0xffffffffL) { csize = buffer.getLong(p); p += 8; }
+						if(local == 0xffffffffL) { local = buffer.getLong(p); }
+						break;
+					}
+					
+					e += 4 + len;
+				}
+			}
+			
+			byte[] name = new byte[nameLength];
+			names.position(pos + CEN_HEADER);
+			names.get(name);
+			entries.put(new String(name, StandardCharsets.UTF_8),
+			            new Entry(method, crc, (int) csize, (int) size, (int) local));
+			
+			pos += CEN_HEADER + nameLength + extraLength + commentLength;
+		}
+		
+		return entries;
+	}
+	
+	private final ByteBuffer mapping() throws IOException {
+		ByteBuffer buffer;
+		if((buffer = mapping) == null) {
+			throw new IOException("Reader closed");
+		}
+		
+		return buffer;
+	}
+	
+	private static final ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+		ByteBuffer slice = buffer.duplicate();
+		slice.limit(offset + length).position(offset);
+		return slice.slice().asReadOnlyBuffer();
+	}
+	
+	private static final ByteBuffer data(ByteBuffer buffer, Entry entry) throws ZipException {
+		int loc = entry.local;
+		
+		if(buffer.getInt(loc) != SIG_LOC) {
+			throw new ZipException("Invalid local file header");
+		}
+		
+		int offset = loc + LOC_HEADER
+					+ (buffer.getShort(loc + 26) & 0xffff)
+					+ (buffer.getShort(loc + 28) & 0xffff);
+		return slice(buffer, offset, entry.csize);
+	}
+	
+	private static final ByteBuffer inflate(ByteBuffer input, int size) throws ZipException {
+		Inflater inflater = new Inflater(true);
+		
+		try {
+			inflater.setInput(input);
+			
+			byte[] output = new byte[size];
+			int length = 0;
+			while(length < size) {
+				int read = inflater.inflate(output, length, size - length);
+				
+				if(read == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+					break;
+				}
+				
+				length += read;
+			}
+			
+			if(length != size) {
+				throw new ZipException("Invalid entry size");
+			}
+			
+			return ByteBuffer.wrap(output);
+		} catch(DataFormatException ex) {
+			throw new ZipException(ex.getMessage());
+		} finally {
+			inflater.end();
+		}
+	}
+	
+	/**
+	 * Checks whether the JAR file is a multi-release JAR file.
+	 * @return {@code true}, if the JAR file is a multi-release JAR file,
+	 * otherwise {@code false}.
+	 */
+	public boolean isMultiRelease() throws IOException {
+		Optional<ByteBuffer> buffer = read(FILE_MANIFEST);
+		
+		if(!buffer.isPresent()) {
+			return false;
+		}
+		
+		ByteBuffer manifest = buffer.get();
+		byte[] bytes = new byte[manifest.remaining()];
+		manifest.get(bytes);
+		
+		for(String line : new String(bytes, StandardCharsets.UTF_8).split("\r\n|\r|\n")) {
+			int index = line.indexOf(':');
+			
+			if(index > 0 && line.substring(0, index).trim().equalsIgnoreCase("Multi-Release")) {
+				return line.substring(index + 1).trim().equalsIgnoreCase("true");
+			}
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Gets the CRC-32 of the uncompressed content of an entry with the given
+	 * {@code name}, as stored in the central directory.
+	 * @param name the name of the entry
+	 * @return The CRC-32 of the entry, or an empty Optional, if there is no
+	 * such entry.
+	 */
+	public Optional<Integer> crc(String name) {
+		Entry entry = entries.get(name);
+		return entry != null ? Optional.of(entry.crc) : Optional.empty();
+	}
+	
+	/**
+	 * Gets names of all entries in the JAR file.
+	 * @return The set of names.
+	 */
+	public Set<String> names() {
+		return Collections.unmodifiableSet(entries.keySet());
+	}
+	
+	/**
+	 * Gets the path of the JAR file.
+	 * @return The path.
+	 */
+	public Path path() {
+		return path;
+	}
+	
+	@Override
+	public Optional<URI> find(String name) throws IOException {
+		mapping();
+		
+		if(!entries.containsKey(name)) {
+			return Optional.empty();
+		}
+		
+		return Optional.of(URI.create("jar:" + uri + "!/" + name));
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * <p>
+	 * The returned buffer is read-only. For stored entries it is a slice
+	 * of the mapped JAR file.
+	 * </p>
+	 */
+	@Override
+	public Optional<ByteBuffer> read(String name) throws IOException {
+		ByteBuffer buffer = mapping();
+		Entry entry = entries.get(name);
+		
+		if(entry == null) {
+			return Optional.empty();
+		}
+		
+		ByteBuffer data = data(buffer, entry);
+		switch(entry.method) {
+			case METHOD_STORED:   return Optional.of(data);
+			case METHOD_DEFLATED: return Optional.of(inflate(data, entry.size));
+			default:
+				throw new ZipException("Unsupported compression method: " + entry.method);
+		}
+	}
+	
+	@Override
+	public void release(ByteBuffer buffer) {
+		// Slices of the mapping and inflated buffers need no releasing
+	}
+	
+	@Override
+	public Stream<String> list() throws IOException {
+		mapping();
+		return entries.keySet().stream();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * <p>
+	 * The mapping itself is released once all buffers returned by this
+	 * reader become unreachable.
+	 * </p>
+	 */
+	@Override
+	public void close() {
+		mapping = null;
+	}
+	
+	private static final class Entry {
+		
+		final int method;
+		final int crc;
+		final int csize;
+		final int size;
+		final int local;
+		
+		Entry(int method, int crc, int csize, int size, int local) {
+			this.method = method;
+			this.crc = crc;
+			this.csize = csize;
+			this.size = size;
+			this.local = local;
+		}
+	}
+}
\ No newline at end of file
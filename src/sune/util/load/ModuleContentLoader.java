@@ -3,20 +3,37 @@ package sune.util.load;
 import java.io.IOException;
 import java.lang.module.ModuleReader;
 import java.lang.module.ResolvedModule;
+import java.lang.reflect.InvocationTargetException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
 
 /**
  * Dynamically loads contents of a module into a ClassLoader at runtime.
  * @author Sune
  */
 public class ModuleContentLoader implements AutoCloseable {
-
+	
 	protected final ClassLoader loader;
 	protected final ResolvedModule module;
 	
 	private ModuleReader reader;
 	private RootClassLoader rootClassLoader;
+	private final boolean ownsReader;
+	// Guards the reader against closing while a class is loaded concurrently
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
 	
 	/**
 	 * Creates a new instance for the given {@code module} and {@code loader}.
@@ -24,9 +41,42 @@ public class ModuleContentLoader implements AutoCloseable {
 	 * @param loader the loader where to load the contents to
 	 */
 	private ModuleContentLoader(ResolvedModule module, ClassLoader loader) {
+		this(module, loader, null);
+	}
+	
+	/**
+	 * Creates a new instance for the given {@code module} and {@code loader}
+	 * that reads the contents using the given {@code reader}. If the reader
+	 * is {@code null}, the module's reference is opened instead.
+	 * @param module the module where to read the contents from
+	 * @param loader the loader where to load the contents to
+	 * @param reader the reader of the module's contents, may be {@code null}
+	 */
+	private ModuleContentLoader(ResolvedModule module, ClassLoader loader, ModuleReader reader) {
+		this(module, loader, reader, reader == null);
+	}
+	
+	/**
+	 * Creates a new instance for the given {@code module} and {@code loader}
+	 * that reads the contents using the given {@code reader} and closes it,
+	 * if it owns it. If the reader is {@code null}, the module's reference
+	 * is opened instead.
+	 * @param module the module where to read the contents from
+	 * @param loader the loader where to load the contents to
+	 * @param reader the reader of the module's contents, may be {@code null}
+	 * @param ownsReader whether to close the reader
+	 */
+	private ModuleContentLoader(ResolvedModule module, ClassLoader loader, ModuleReader reader,
+			boolean ownsReader) {
 		this.module = Objects.requireNonNull(module);
 		this.loader = Objects.requireNonNull(loader);
-		this.rootClassLoader = new ModuleContentRootClassLoader(loader);
+		this.rootClassLoader = new ResolvingRootClassLoader(loader, new ModuleContentsResolver());
+		// Bytes kept for the sequential path are cached across the calls, see close
+		this.rootClassLoader.setBytesCache(new ClassBytesCache(RootClassLoader.DEFAULT_CACHE_SIZE));
+		// Classes of the module's packages cannot be loaded through the parents
+		this.rootClassLoader.session().addLocalPackages(module.reference().descriptor().packages());
+		this.reader = reader;
+		this.ownsReader = ownsReader || reader == null;
 	}
 	
 	/**
@@ -43,6 +93,119 @@ public class ModuleContentLoader implements AutoCloseable {
 		}
 	}
 	
+	/**
+	 * Dynamically loads contents of the given {@code module} to the given
+	 * {@code loader}, reading the contents using the given {@code reader},
+	 * e.g. a {@linkplain MappedJarReader}. The reader is not closed.
+	 * @param module the module where to load the contents to
+	 * @param loader the loader where to load the contents to
+	 * @param reader the reader of the module's contents
+	 */
+	public static final void loadContent(ResolvedModule module, ClassLoader loader, ModuleReader reader)
+			throws Exception {
+		try(ModuleContentLoader contentLoader
+				= new ModuleContentLoader(module, loader, Objects.requireNonNull(reader))) {
+			contentLoader.loadAll();
+		}
+	}
+	
+	/**
+	 * Dynamically loads contents of the given {@code module} to the given
+	 * {@code loader} in parallel using the given {@code executor}. The result
+	 * is the same as of {@linkplain #loadContent(ResolvedModule, ClassLoader)},
+	 * see {@linkplain #loadAll(Executor)} for more information.
+	 * @param module the module where to read the contents from
+	 * @param loader the loader where to load the contents to
+	 * @param executor the executor where to run the analysis and definition
+	 */
+	public static final void loadContent(ResolvedModule module, ClassLoader loader, Executor executor)
+			throws Exception {
+		try(ModuleContentLoader contentLoader = new ModuleContentLoader(module, loader)) {
+			contentLoader.loadAll(executor);
+		}
+	}
+	
+	/**
+	 * <p>
+	 * Dynamically loads contents of the given {@code module} to the given
+	 * {@code loader} in the background using the given {@code executor}, e.g.
+	 * an executor of virtual threads, if supported by the runtime. The result
+	 * is the same as of {@linkplain #loadContent(ResolvedModule, ClassLoader)}.
+	 * </p>
+	 * 
+	 * <p>
+	 * The module's reference is opened on the calling thread, then the contents
+	 * are loaded by a single task of the executor. Classes requested using
+	 * {@linkplain ModuleLoadTask#loadClass(String)} in the meantime are loaded
+	 * on the requesting thread.
+	 * </p>
+	 * 
+	 * @param module the module where to read the contents from
+	 * @param loader the loader where to load the contents to
+	 * @param executor the executor where to run the loading
+	 * @return The handle of the loading.
+	 */
+	public static final ModuleLoadTask loadContentAsync(ResolvedModule module, ClassLoader loader,
+			Executor executor) throws Exception {
+		return loadAsync(new ModuleContentLoader(module, loader), executor);
+	}
+	
+	/**
+	 * Dynamically loads contents of the given {@code module} to the given
+	 * {@code loader} in the background using the given {@code executor},
+	 * reading the contents using the given {@code reader}. The reader is not
+	 * closed and must remain open until the loading is finished. See
+	 * {@linkplain #loadContentAsync(ResolvedModule, ClassLoader, Executor)}
+	 * for more information.
+	 * @param module the module where to read the contents from
+	 * @param loader the loader where to load the contents to
+	 * @param reader the reader of the module's contents
+	 * @param executor the executor where to run the loading
+	 * @return The handle of the loading.
+	 */
+	public static final ModuleLoadTask loadContentAsync(ResolvedModule module, ClassLoader loader,
+			ModuleReader reader, Executor executor) throws Exception {
+		return loadContentAsync(module, loader, reader, false, executor);
+	}
+	
+	static final ModuleLoadTask loadContentAsync(ResolvedModule module, ClassLoader loader, ModuleReader reader,
+			boolean ownsReader, Executor executor) throws Exception {
+		return loadAsync(new ModuleContentLoader(module, loader, Objects.requireNonNull(reader), ownsReader),
+		                 executor);
+	}
+	
+	private static final ModuleLoadTask loadAsync(ModuleContentLoader contentLoader, Executor executor)
+			throws Exception {
+		CompletableFuture<Boolean> future = new CompletableFuture<>();
+		ModuleLoadTask task;
+		
+		try {
+			Objects.requireNonNull(executor);
+			// Open the reader beforehand, so that classes can be requested right away
+			contentLoader.ensureReader();
+			task = new ModuleLoadTask(contentLoader.module.name(), contentLoader.loader,
+				contentLoader.rootClassLoader.session(), future, contentLoader);
+			
+			executor.execute(() -> {
+				try {
+					try(contentLoader) {
+						task.total(contentLoader.classCount());
+						contentLoader.loadAll();
+					}
+					
+					future.complete(true);
+				} catch(Throwable ex) {
+					future.completeExceptionally(ex);
+				}
+			});
+		} catch(Exception | Error ex) {
+			contentLoader.close();
+			throw ex;
+		}
+		
+		return task;
+	}
+	
 	/**
 	 * Extracts a full class name from the given {@code path}.
 	 * @param path the path
@@ -79,12 +242,292 @@ public class ModuleContentLoader implements AutoCloseable {
 		}
 	}
 	
+	private final int classCount() throws IOException {
+		return (int) reader.list().filter(RootClassLoader::isClassFile).count();
+	}
+	
+	private static final <T> T await(CompletableFuture<T> future) throws Exception {
+		try {
+			return future.join();
+		} catch(CompletionException ex) {
+			Throwable cause = ex.getCause();
+			
+			if(cause instanceof Exception) throw (Exception) cause;
+			if(cause instanceof Error)     throw (Error)     cause;
+			throw ex;
+		}
+	}
+	
+	private static final void awaitAll(List<CompletableFuture<Void>> futures) throws Exception {
+		await(CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)));
+	}
+	
+	private final ByteBuffer read(String path) throws IOException {
+		return reader.read(path).orElseThrow(() -> new IOException("Unable to read: " + path));
+	}
+	
+	/**
+	 * Reads a class located at the given {@code path}, reporting the read
+	 * to the registered listeners.
+	 */
+	private final ByteBuffer readClass(String path) throws IOException {
+		if(!LoadListeners.enabled()) {
+			return read(path);
+		}
+		
+		long start = System.nanoTime();
+		ByteBuffer buffer = read(path);
+		LoadListeners.classRead(path, buffer.remaining(), System.nanoTime() - start, false);
+		return buffer;
+	}
+	
+	private final ClassNode classNode(String path) {
+		try {
+			ByteBuffer buffer = readClass(path);
+			
+			try {
+				List<String> supertypes = ClassDependencyAnalyzer.supertypes(buffer);
+				return new ClassNode(path, buffer, supertypes);
+			} catch(RuntimeException ex) {
+				reader.release(buffer);
+				throw ex;
+			}
+		} catch(IOException ex) {
+			throw new CompletionException(ex);
+		}
+	}
+	
+	private final boolean defineNode(ClassNode node) {
+		boolean defined = false;
+		
+		try {
+			RootClassLoader.defineClass(loader, rootClassLoader.session(), node.name, node.buffer);
+			defined = true;
+			return true;
+		} catch(InvocationTargetException ex) {
+			if(ex.getCause() instanceof NoClassDefFoundError) {
+				if(LoadListeners.enabled()) {
+					LoadListeners.classRetried(node.name, ex.getCause().getMessage());
+				}
+				
+				// Some required class is not available yet, leave the class
+				// to the sequential path that can handle it.
+				return false;
+			}
+			
+			throw new CompletionException(ex);
+		} catch(IllegalAccessException | IllegalArgumentException ex) {
+			throw new CompletionException(ex);
+		} finally {
+			ClassBytesCache cache = rootClassLoader.bytesCache();
+			
+			// Keep the bytes for the sequential path, if the class was not defined
+			if(defined || cache == null) reader.release(node.buffer);
+			else                         cache.put(node.path, node.buffer, reader::release);
+			node.buffer = null;
+		}
+	}
+	
+	/**
+	 * Defines all classes of the current module in the order given by
+	 * the {@code manifest}, without any analysis.
+	 * @return {@code true}, if all the classes were defined, {@code false},
+	 * if the manifest does not match the module or some class could not be
+	 * defined. Classes defined so far remain defined.
+	 */
+	private final boolean loadOrdered(LoadOrderManifest manifest) throws Exception {
+		Set<String> paths = reader.list()
+			.filter(RootClassLoader::isClassFile)
+			.collect(Collectors.toSet());
+		
+		if(!paths.equals(manifest.paths())) {
+			return false; // Classes were added or removed
+		}
+		
+		// The CRCs of a mapped JAR file are known without reading the classes
+		boolean verified = false;
+		if(reader instanceof MappedJarReader) {
+			MappedJarReader jar = (MappedJarReader) reader;
+			
+			for(String path : paths) {
+				if(!jar.crc(path).equals(Optional.ofNullable(manifest.crc(path)))) {
+					return false; // Classes were changed
+				}
+			}
+			
+			verified = true;
+		}
+		
+		LoadSession session = rootClassLoader.session();
+		for(String path : manifest.paths()) {
+			String name = pathToClassName(path);
+			ByteBuffer buffer = readClass(path);
+			
+			try {
+				if(!verified && !manifest.matches(path, buffer)) {
+					return false; // The class was changed
+				}
+				
+				RootClassLoader.defineClass(loader, session, name, buffer);
+			} catch(InvocationTargetException ex) {
+				if(ex.getCause() instanceof NoClassDefFoundError) {
+					// A required class from another module is not available
+					return false;
+				}
+				
+				throw ex;
+			} finally {
+				reader.release(buffer);
+			}
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Loads all classes of the current module. If the module contains
+	 * a {@linkplain LoadOrderManifest} that matches it, the classes are defined
+	 * directly in the order given by the manifest. Otherwise, or if that fails,
+	 * each class is loaded along with its required classes.
+	 */
 	public void loadAll() throws Exception {
-		try(ModuleReader reader = module.reference().open()) {
-			for(String classPath : ((Iterable<String>) reader.list()::iterator)) {
-				loadClass(classPath);
+		boolean enabled = LoadListeners.enabled();
+		long start = enabled ? System.nanoTime() : 0L;
+		int defined = rootClassLoader.session().definedCount();
+		
+		ensureReader();
+		
+		LoadOrderManifest manifest = LoadOrderManifest.read(reader);
+		if(manifest == null || !loadOrdered(manifest)) {
+			rootClassLoader.loadClasses(reader.list()::iterator);
+		}
+		
+		if(enabled) {
+			int classes = rootClassLoader.session().definedCount() - defined;
+			LoadListeners.moduleContentLoaded(module.name(), classes, System.nanoTime() - start);
+		}
+	}
+	
+	/**
+	 * <p>
+	 * Loads all classes of the current module in parallel using the given
+	 * {@code executor}. The result is the same as of {@linkplain #loadAll()},
+	 * i.e. all the classes located in the module are defined.
+	 * </p>
+	 * 
+	 * <p>
+	 * At first, all the classes are read and their supertypes obtained using
+	 * {@linkplain ClassDependencyAnalyzer#supertypes(ByteBuffer)}. This builds
+	 * a dependency graph of the whole module. The classes are then defined in
+	 * waves, where each wave contains only classes whose supertypes were already
+	 * defined by the previous waves, therefore all classes in a single wave can be
+	 * defined concurrently. Classes that cannot be defined this way, e.g. due to
+	 * a dependency cycle, are defined sequentially at the end.
+	 * </p>
+	 * 
+	 * @param executor the executor where to run the analysis and definition
+	 */
+	public void loadAll(Executor executor) throws Exception {
+		Objects.requireNonNull(executor);
+		boolean enabled = LoadListeners.enabled();
+		long start = enabled ? System.nanoTime() : 0L;
+		int defined = rootClassLoader.session().definedCount();
+		
+		ensureReader();
+		
+		List<String> paths = reader.list()
+			.filter(RootClassLoader::isClassFile)
+			.collect(Collectors.toList());
+		
+		List<CompletableFuture<ClassNode>> reads = new ArrayList<>(paths.size());
+		for(String path : paths) {
+			reads.add(CompletableFuture.supplyAsync(() -> classNode(path), executor));
+		}
+		
+		Map<String, ClassNode> nodes = new HashMap<>(paths.size() * 4 / 3 + 1);
+		
+		try {
+			for(CompletableFuture<ClassNode> read : reads) {
+				ClassNode node = await(read);
+				nodes.put(node.name, node);
+			}
+			
+			List<ClassNode> wave = new ArrayList<>();
+			for(ClassNode node : nodes.values()) {
+				for(String supertype : node.supertypes) {
+					ClassNode parent = nodes.get(supertype);
+					
+					// Only classes from the current module must be ordered
+					if(parent != null && parent != node) {
+						parent.dependents.add(node);
+						++node.pending;
+					}
+				}
+				
+				if(node.pending == 0) {
+					wave.add(node);
+				}
+			}
+			
+			while(!wave.isEmpty()) {
+				List<CompletableFuture<Void>> defines = new ArrayList<>(wave.size());
+				for(ClassNode node : wave) {
+					defines.add(CompletableFuture.runAsync(() -> node.defined = defineNode(node), executor));
+				}
+				
+				awaitAll(defines);
+				
+				List<ClassNode> next = new ArrayList<>();
+				for(ClassNode node : wave) {
+					if(!node.defined) {
+						continue; // Will be loaded sequentially
+					}
+					
+					for(ClassNode dependent : node.dependents) {
+						if(--dependent.pending == 0) {
+							next.add(dependent);
+						}
+					}
+				}
+				
+				wave = next;
+			}
+			
+			ClassBytesCache cache = rootClassLoader.bytesCache();
+			
+			// Classes that were never part of a wave still hold their bytes, keep
+			// them for the sequential path, so that they are not read again
+			for(ClassNode node : nodes.values()) {
+				if(node.buffer != null) {
+					if(cache == null) reader.release(node.buffer);
+					else              cache.put(node.path, node.buffer, reader::release);
+					node.buffer = null;
+				}
+			}
+			
+			// Classes in cycles or with missing dependencies are loaded sequentially
+			for(ClassNode node : nodes.values()) {
+				if(!node.defined) {
+					loadClass(node.path);
+				}
+			}
+		} finally {
+			// Release the bytes that were not used due to a failure, including
+			// the bytes of the reads that have not completed yet
+			for(CompletableFuture<ClassNode> read : reads) {
+				ClassNode node = read.exceptionally((ex) -> null).join();
+				
+				if(node != null && node.buffer != null) {
+					reader.release(node.buffer);
+					node.buffer = null;
+				}
 			}
 		}
+		
+		if(enabled) {
+			int classes = rootClassLoader.session().definedCount() - defined;
+			LoadListeners.moduleContentLoaded(module.name(), classes, System.nanoTime() - start);
+		}
 	}
 	
 	/**
@@ -100,9 +543,50 @@ public class ModuleContentLoader implements AutoCloseable {
 		return rootClassLoader.loadClass(path);
 	}
 	
+	/**
+	 * Loads a class given by the {@code path} while the contents are loaded
+	 * by another thread. The class is loaded within the same load session, but
+	 * using its own root class loader, so that the other thread is not affected.
+	 * Returns {@code null}, if this content loader was already closed.
+	 */
+	final Class<?> loadClassConcurrently(String path) throws Exception {
+		Lock readLock = lock.readLock();
+		readLock.lock();
+		
+		try {
+			if(rootClassLoader == null) {
+				return null; // Already closed
+			}
+			
+			RootClassLoader root = new ResolvingRootClassLoader(loader, new ModuleContentsResolver(),
+			                                                    rootClassLoader.session());
+			
+			// The remaining buffers are released once the class is loaded
+			return root.loadClass(path);
+		} finally {
+			readLock.unlock();
+		}
+	}
+	
 	@Override
 	public void close() throws Exception {
-		if(reader != null) {
+		Lock writeLock = lock.writeLock();
+		writeLock.lock();
+		
+		try {
+			close0();
+		} finally {
+			writeLock.unlock();
+		}
+	}
+	
+	private final void close0() throws Exception {
+		ClassBytesCache cache;
+		if(rootClassLoader != null && (cache = rootClassLoader.bytesCache()) != null) {
+			cache.clear(); // Release the remaining buffers before the reader is closed
+		}
+		
+		if(reader != null && ownsReader) {
 			reader.close();
 		}
 		
@@ -110,11 +594,25 @@ public class ModuleContentLoader implements AutoCloseable {
 		reader = null;
 	}
 	
-	private final class ModuleContentRootClassLoader extends RootClassLoader {
+	private static final class ClassNode {
 		
-		public ModuleContentRootClassLoader(ClassLoader loader) {
-			super(loader);
+		final String path;
+		final String name;
+		final List<String> supertypes;
+		final List<ClassNode> dependents = new ArrayList<>();
+		ByteBuffer buffer;
+		int pending;
+		volatile boolean defined;
+		
+		ClassNode(String path, ByteBuffer buffer, List<String> supertypes) {
+			this.path = path;
+			this.name = pathToClassName(path);
+			this.buffer = buffer;
+			this.supertypes = supertypes;
 		}
+	}
+	
+	private final class ModuleContentsResolver implements ContentsResolver {
 		
 		/**
 		 * Gets bytes from a file located at the given {@code path} in
@@ -123,18 +621,34 @@ public class ModuleContentLoader implements AutoCloseable {
 		 * @return The content of the resource as an byte array.
 		 */
 		@Override
-		protected byte[] bytes(String path) throws Exception {
-			ensureReader();
+		public byte[] bytes(String path) throws Exception {
+			ByteBuffer buffer = buffer(path);
 			
-			ByteBuffer buffer = null;
 			try {
-				buffer = reader.read(path).get();
-				return buffer.array();
+				byte[] bytes = new byte[buffer.remaining()];
+				buffer.duplicate().get(bytes);
+				return bytes;
 			} finally {
-				if(buffer != null) {
-					reader.release(buffer);
-				}
+				release(buffer);
 			}
 		}
+		
+		/**
+		 * Gets a buffer with the content of a file located at the given
+		 * {@code path} in the current {@code module}, as returned by
+		 * the module reader, i.e. without copying it.
+		 * @param path the path to the resource
+		 * @return The content of the resource as a buffer.
+		 */
+		@Override
+		public ByteBuffer buffer(String path) throws Exception {
+			ensureReader();
+			return read(path);
+		}
+		
+		@Override
+		public void release(ByteBuffer buffer) {
+			reader.release(buffer);
+		}
 	}
 }
\ No newline at end of file
@@ -1,12 +1,31 @@
 package sune.util.load;
 
+import java.io.IOException;
+import java.lang.module.FindException;
+import java.lang.module.ModuleDescriptor;
+import java.lang.module.ModuleFinder;
+import java.lang.module.ModuleReader;
 import java.lang.module.ModuleReference;
 import java.lang.module.ResolvedModule;
 import java.lang.ref.SoftReference;
 import java.lang.reflect.Method;
+import java.net.URI;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import sune.util.load.LoadEvents.ModuleLazyRegisterEvent;
 
 /**
  * <p>
@@ -18,6 +37,14 @@ import java.util.Map;
  * </p>
  * 
  * <p>
+ * Modules can be loaded even more lazily using {@linkplain #loadModuleDeferred(
+ * Path, String, ClassLoader) loadModuleDeferred}. Such a module is registered
+ * using only its {@linkplain ModulePackageIndex package index} and it is
+ * resolved and its file is opened when a class from the module is requested
+ * for the first time.
+ * </p>
+ * 
+ * <p>
  * Note that this class uses Unsafe and Reflection to achieve
  * the above functionality and therefore may be unstable.
  * </p>
@@ -26,7 +53,9 @@ import java.util.Map;
  */
 public final class ModuleLazyLoader {
 	
-	private static final Map<Class<?>, SoftReference<Method>> methods = new HashMap<>();
+	private static final Map<Class<?>, SoftReference<Method>> methods = new ConcurrentHashMap<>();
+	private static final Map<String, DeferredModuleReference> deferred = new ConcurrentHashMap<>();
+	private static final Object lock = new Object();
 	
 	// Forbid anyone to create an instance of this class
 	private ModuleLazyLoader() {
@@ -85,20 +114,483 @@ public final class ModuleLazyLoader {
 	 * cannot be loaded.
 	 */
 	public static final ResolvedModule loadModule(Path path, String name, ClassLoader loader) {
+		return loadModule(path, name, loader, null);
+	}
+	
+	/**
+	 * <p>
+	 * Lazily loads a module at the given path with the given name in the given
+	 * class loader, guided by the given {@code profile}.
+	 * </p>
+	 * 
+	 * <p>
+	 * Classes of the module in the hot set of the profile are defined eagerly,
+	 * the rest of the module is loaded lazily, as {@linkplain #loadModule(Path,
+	 * String, ClassLoader)} does. Classes of the module that are loaded lazily
+	 * are recorded in the profile. See {@linkplain HotSetProfile} for more
+	 * information.
+	 * </p>
+	 * 
+	 * @param path the module's path
+	 * @param name the module's name
+	 * @param loader the class loader where to load the module
+	 * @param profile the hot set profile, may be {@code null}
+	 * @return The resolved module instance, or {@code null} if the module
+	 * cannot be loaded.
+	 */
+	public static final ResolvedModule loadModule(Path path, String name, ClassLoader loader,
+			HotSetProfile profile) {
 		ResolvedModule module;
 		
 		if((module = ModuleLoader.moduleOfName(name)) != null) {
 			return module;
 		}
 		
-		module = ModuleLoader.loadModule(path, name, loader);
+		// A module must be registered in the class loader only once
+		synchronized(lock) {
+			if((module = ModuleLoader.moduleOfName(name)) != null) {
+				return module;
+			}
+			
+			DeferredModuleReference reference;
+			if((reference = deferred.get(name)) != null) {
+				// Already registered in the class loader, just resolve it
+				return reference.resolve();
+			}
+			
+			module = loadModule0(path, name, loader, profile);
+		}
+		
+		// Classes of the module are now visible through the loader
+		ClassPresenceCache.clearAbsent(loader);
+		
+		if(profile != null) {
+			preload(profile, name, path, module.reference(), loader);
+		}
+		
+		return module;
+	}
+	
+	private static final ResolvedModule loadModule0(Path path, String name, ClassLoader loader,
+			HotSetProfile profile) {
+		ResolvedModule module = ModuleLoader.loadModule(path, name, loader);
+		ModuleReference reference = module.reference();
+		
+		if(profile != null) {
+			reference = profile.recording(name, reference);
+		}
+		
+		ModuleLazyRegisterEvent event = LoadEvents.enabled() ? new ModuleLazyRegisterEvent() : null;
+		if(event != null) event.begin();
 		
 		try {
-			loadModule(module.reference(), loader);
+			loadModule(reference, loader);
 		} catch(Exception ex) {
 			throw new IllegalStateException("Unable to load module: " + name, ex);
 		}
 		
+		if(event != null && event.shouldCommit()) {
+			event.moduleName = name;
+			event.path = path.toString();
+			event.loaderClass = loader.getClass();
+			event.commit();
+		}
+		
 		return module;
 	}
+	
+	/**
+	 * Eagerly defines classes of a module with the given {@code name} that
+	 * are in the hot set of the given {@code profile}. The module is read
+	 * directly from the given {@code path}, if possible, otherwise using
+	 * the given {@code reference}.
+	 */
+	private static final void preload(HotSetProfile profile, String name, Path path, ModuleReference reference,
+			ClassLoader loader) {
+		List<String> classes = profile.classes(name);
+		
+		if(classes.isEmpty()) {
+			return;
+		}
+		
+		try {
+			ModuleReader reader = MappedJarReader.tryOpen(path);
+			
+			try(ModuleReader r = reader != null ? reader : reference.open()) {
+				ContentsResolver resolver = ContentsResolver.of(r);
+				Map<String, ByteBuffer> buffers = new HashMap<>();
+				Map<String, List<String>> supertypes = new LinkedHashMap<>();
+				
+				try {
+					// Classes that are no longer in the module are skipped
+					for(String clazz : classes) {
+						Optional<ByteBuffer> buffer = r.read(clazz);
+						
+						if(buffer.isPresent()) {
+							buffers.put(clazz, buffer.get());
+							supertypes.put(clazz, ClassDependencyAnalyzer.supertypes(buffer.get()));
+						}
+					}
+					
+					// Supertypes must be defined first, otherwise the class loader
+					// would load them lazily from the module
+					List<String> order = new ArrayList<>(supertypes.size());
+					Set<String> visited = new HashSet<>();
+					for(String clazz : supertypes.keySet()) {
+						order(clazz, supertypes, visited, order);
+					}
+					
+					RootClassLoader rootClassLoader
+						= new ResolvingRootClassLoader(loader, new HotSetContentsResolver(buffers, resolver));
+					rootClassLoader.session().addLocalPackages(reference.descriptor().packages());
+					rootClassLoader.loadClasses(order);
+				} finally {
+					for(ByteBuffer buffer : buffers.values()) {
+						resolver.release(buffer);
+					}
+				}
+			}
+		} catch(Exception ex) {
+			// Classes that were not defined will be loaded lazily
+		}
+	}
+	
+	private static final void order(String path, Map<String, List<String>> supertypes, Set<String> visited,
+			List<String> order) {
+		if(!visited.add(path)) {
+			return;
+		}
+		
+		for(String supertype : supertypes.get(path)) {
+			String superPath = RootClassLoader.classNameToPath(supertype);
+			
+			// Only classes from the hot set must be ordered
+			if(supertypes.containsKey(superPath)) {
+				order(superPath, supertypes, visited, order);
+			}
+		}
+		
+		order.add(path);
+	}
+	
+	/**
+	 * Lazily loads a module at the given path with the given name in the given
+	 * class loader, deferring opening of the module's file until a class from
+	 * the module is requested for the first time. The packages of the module
+	 * are obtained from a {@linkplain ModulePackageIndex package index} stored
+	 * next to the module's file.
+	 * See {@linkplain #loadModuleDeferred(ModulePackageIndex, String, ClassLoader)}
+	 * for more information.
+	 * @param path the module's path
+	 * @param name the module's name
+	 * @param loader the class loader where to load the module
+	 */
+	public static final void loadModuleDeferred(Path path, String name, ClassLoader loader) {
+		loadModuleDeferred(path, name, loader, null);
+	}
+	
+	/**
+	 * Lazily loads a module at the given path with the given name in the given
+	 * class loader, deferring opening of the module's file until a class from
+	 * the module, that is not in the hot set of the given {@code profile},
+	 * is requested for the first time.
+	 * See {@linkplain #loadModuleDeferred(ModulePackageIndex, String, ClassLoader,
+	 * HotSetProfile)} for more information.
+	 * @param path the module's path
+	 * @param name the module's name
+	 * @param loader the class loader where to load the module
+	 * @param profile the hot set profile, may be {@code null}
+	 */
+	public static final void loadModuleDeferred(Path path, String name, ClassLoader loader,
+			HotSetProfile profile) {
+		if(isLoaded(name)) {
+			return;
+		}
+		
+		try {
+			loadModuleDeferred(ModulePackageIndex.of(path), name, loader, profile);
+		} catch(IOException ex) {
+			throw new IllegalStateException("Unable to index module: " + name, ex);
+		}
+	}
+	
+	/**
+	 * <p>
+	 * Lazily loads a module indexed by the given {@code index} with the given
+	 * name in the given class loader, deferring all the work until a class from
+	 * the module is requested for the first time.
+	 * </p>
+	 * 
+	 * <p>
+	 * Unlike {@linkplain #loadModule(Path, String, ClassLoader) loadModule},
+	 * the module's file is neither opened nor scanned and the module is not
+	 * resolved at all. Only packages of the module, as obtained from the given
+	 * index, are registered in the class loader. Once a class or a resource
+	 * in one of the packages is requested, the module is resolved and
+	 * registered using {@linkplain ModuleLoader} and its file is opened.
+	 * Therefore the module is not {@linkplain ModuleLoader#isLoaded(String)
+	 * loaded} until then.
+	 * </p>
+	 * 
+	 * <p>
+	 * If the module's file contains a module descriptor, the given name must
+	 * be the name of the module declared in it, otherwise an {@linkplain
+	 * IllegalArgumentException} is thrown.
+	 * </p>
+	 * 
+	 * @param index the package index of the module's file
+	 * @param name the module's name
+	 * @param loader the class loader where to load the module
+	 */
+	public static final void loadModuleDeferred(ModulePackageIndex index, String name, ClassLoader loader) {
+		loadModuleDeferred(index, name, loader, null);
+	}
+	
+	/**
+	 * Lazily loads a module indexed by the given {@code index} with the given
+	 * name in the given class loader, as {@linkplain #loadModuleDeferred(
+	 * ModulePackageIndex, String, ClassLoader)} does, guided by the given
+	 * {@code profile}. Classes of the module in the hot set of the profile are
+	 * defined eagerly, directly from the module's file, without resolving
+	 * the module. Classes of the module that are loaded lazily are recorded
+	 * in the profile. See {@linkplain HotSetProfile} for more information.
+	 * @param index the package index of the module's file
+	 * @param name the module's name
+	 * @param loader the class loader where to load the module
+	 * @param profile the hot set profile, may be {@code null}
+	 */
+	public static final void loadModuleDeferred(ModulePackageIndex index, String name, ClassLoader loader,
+			HotSetProfile profile) {
+		if(isLoaded(name)) {
+			return;
+		}
+		
+		DeferredModuleReference reference;
+		
+		// A module must be registered in the class loader only once
+		synchronized(lock) {
+			if(isLoaded(name)) {
+				return;
+			}
+			
+			ModuleLazyRegisterEvent event = LoadEvents.enabled() ? new ModuleLazyRegisterEvent() : null;
+			if(event != null) event.begin();
+			
+			ModuleDescriptor descriptor = index.descriptor(name);
+			
+			// The module is looked up by the given name before it is resolved
+			if(!descriptor.name().equals(name)) {
+				throw new IllegalArgumentException("Module name mismatch: " + name + ", the file contains: "
+					+ descriptor.name());
+			}
+			
+			reference = new DeferredModuleReference(descriptor, index.jar(), loader);
+			
+			try {
+				loadModule(profile != null ? profile.recording(name, reference) : reference, loader);
+			} catch(Exception ex) {
+				throw new IllegalStateException("Unable to load module: " + name, ex);
+			}
+			
+			deferred.put(name, reference);
+			
+			if(event != null && event.shouldCommit()) {
+				event.moduleName = name;
+				event.path = index.jar().toString();
+				event.loaderClass = loader.getClass();
+				event.commit();
+			}
+		}
+		
+		// Classes of the module are now visible through the loader
+		ClassPresenceCache.clearAbsent(loader);
+		
+		if(profile != null) {
+			preload(profile, name, index.jar(), reference, loader);
+		}
+	}
+	
+	private static final boolean isLoaded(String name) {
+		return deferred.containsKey(name) || ModuleLoader.moduleOfName(name) != null;
+	}
+	
+	/**
+	 * Reference of a module registered in a class loader before it is resolved.
+	 * The module is resolved and its file is opened only when it is read for
+	 * the first time.
+	 */
+	private static final class DeferredModuleReference extends ModuleReference {
+		
+		private final Path path;
+		private final ClassLoader loader;
+		
+		DeferredModuleReference(ModuleDescriptor descriptor, Path path, ClassLoader loader) {
+			super(descriptor, path.toUri());
+			this.path = path;
+			this.loader = loader;
+		}
+		
+		/**
+		 * Resolves and registers the module, if not already done. Once resolved,
+		 * the module is no longer deferred, i.e. it is known to {@linkplain
+		 * ModuleLoader} instead.
+		 */
+		final ResolvedModule resolve() {
+			String name = descriptor().name();
+			ModuleFinder finder = new ModuleLoader.ReferencesFinder(Map.of(name, this));
+			ResolvedModule module = ModuleLoader.loadModules(finder, List.of(name), loader).get(name);
+			
+			if(module != null) {
+				deferred.remove(name, this);
+			}
+			
+			return module;
+		}
+		
+		/**
+		 * Resolves and registers the module, if not already done, and opens
+		 * a reader of the module's file.
+		 */
+		final ModuleReader complete() throws IOException {
+			String name = descriptor().name();
+			
+			try {
+				resolve();
+			} catch(RuntimeException ex) {
+				throw new IOException("Unable to resolve module: " + name, ex);
+			}
+			
+			ModuleReader reader = MappedJarReader.tryOpen(path);
+			if(reader != null) {
+				return reader;
+			}
+			
+			return ModuleFinder.of(path).findAll().stream()
+						.findFirst()
+						.orElseThrow(() -> new FindException("Module " + name + " not found in " + path))
+						.open();
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * 
+		 * <p>
+		 * The returned reader completes the module only when it is used, since
+		 * class loaders may open the reader while holding their internal locks.
+		 * </p>
+		 */
+		@Override
+		public ModuleReader open() {
+			return new DeferredModuleReader(this);
+		}
+	}
+	
+	private static final class DeferredModuleReader implements ModuleReader {
+		
+		private final DeferredModuleReference reference;
+		private volatile ModuleReader reader;
+		private boolean closed;
+		
+		DeferredModuleReader(DeferredModuleReference reference) {
+			this.reference = reference;
+		}
+		
+		private final ModuleReader reader() throws IOException {
+			ModuleReader r;
+			if((r = reader) == null) {
+				synchronized(this) {
+					if(closed) {
+						throw new IOException("Reader closed");
+					}
+					
+					if((r = reader) == null) {
+						reader = r = reference.complete();
+					}
+				}
+			}
+			
+			return r;
+		}
+		
+		@Override
+		public Optional<URI> find(String name) throws IOException {
+			return reader().find(name);
+		}
+		
+		@Override
+		public Optional<ByteBuffer> read(String name) throws IOException {
+			return reader().read(name);
+		}
+		
+		@Override
+		public void release(ByteBuffer buffer) {
+			ModuleReader r;
+			if((r = reader) != null) {
+				r.release(buffer);
+			}
+		}
+		
+		@Override
+		public Stream<String> list() throws IOException {
+			return reader().list();
+		}
+		
+		@Override
+		public void close() throws IOException {
+			ModuleReader r;
+			synchronized(this) {
+				closed = true;
+				r = reader;
+			}
+			
+			if(r != null) {
+				r.close();
+			}
+		}
+	}
+	
+	/**
+	 * Resolver of contents of classes in a hot set, that are already read.
+	 * Contents of other classes are obtained using the given resolver.
+	 */
+	private static final class HotSetContentsResolver implements ContentsResolver {
+		
+		private final Map<String, ByteBuffer> buffers;
+		private final Set<ByteBuffer> owned;
+		private final ContentsResolver resolver;
+		
+		HotSetContentsResolver(Map<String, ByteBuffer> buffers, ContentsResolver resolver) {
+			this.buffers = buffers;
+			this.owned = Collections.newSetFromMap(new IdentityHashMap<>());
+			this.owned.addAll(buffers.values());
+			this.resolver = resolver;
+		}
+		
+		@Override
+		public byte[] bytes(String path) throws Exception {
+			ByteBuffer buffer = buffer(path);
+			
+			try {
+				byte[] bytes = new byte[buffer.remaining()];
+				buffer.duplicate().get(bytes);
+				return bytes;
+			} finally {
+				release(buffer);
+			}
+		}
+		
+		@Override
+		public ByteBuffer buffer(String path) throws Exception {
+			ByteBuffer buffer = buffers.get(path);
+			return buffer != null ? buffer : resolver.buffer(path);
+		}
+		
+		@Override
+		public void release(ByteBuffer buffer) {
+			// Buffers of the hot set are released all at once
+			if(!owned.contains(buffer)) {
+				resolver.release(buffer);
+			}
+		}
+	}
 }
\ No newline at end of file
@@ -0,0 +1,155 @@
+package sune.util.load;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * <p>
+ * Handle of contents of a module that are loaded in the background, see
+ * {@linkplain ModuleContentLoader#loadContentAsync(java.lang.module.ResolvedModule,
+ * ClassLoader, java.util.concurrent.Executor) ModuleContentLoader.loadContentAsync}
+ * and {@linkplain ZIPLoader#loadAsync(java.nio.file.Path, String, ClassLoader,
+ * java.util.concurrent.Executor) ZIPLoader.loadAsync}.
+ * </p>
+ * 
+ * <p>
+ * A class of the module may be requested using {@linkplain #loadClass(String)}
+ * while the contents are still being loaded. Such a class is loaded along with
+ * its required classes directly on the calling thread. The calling thread shares
+ * the load session with the background loading, therefore each class is still
+ * defined only once, no matter which thread requests it first.
+ * </p>
+ * 
+ * @author Sune
+ */
+public final class ModuleLoadTask {
+	
+	private final String name;
+	private final ClassLoader loader;
+	private final LoadSession session;
+	private final CompletableFuture<Boolean> future;
+	private final ModuleContentLoader contentLoader;
+	private volatile int total = -1;
+	
+	ModuleLoadTask(String name, ClassLoader loader, LoadSession session, CompletableFuture<Boolean> future,
+			ModuleContentLoader contentLoader) {
+		this.name = Objects.requireNonNull(name);
+		this.loader = Objects.requireNonNull(loader);
+		this.session = Objects.requireNonNull(session);
+		this.future = Objects.requireNonNull(future);
+		this.contentLoader = contentLoader;
+	}
+	
+	/**
+	 * Creates a task of a module with the given {@code name} that is already
+	 * completed, i.e. there is nothing to load in the background.
+	 */
+	static final ModuleLoadTask completed(String name, ClassLoader loader, boolean loaded) {
+		ModuleLoadTask task = new ModuleLoadTask(name, loader, new LoadSession(),
+			CompletableFuture.completedFuture(loaded), null);
+		task.total = 0;
+		return task;
+	}
+	
+	final void total(int total) {
+		this.total = total;
+	}
+	
+	/**
+	 * Gets the name of the module.
+	 * @return The module name.
+	 */
+	public String name() {
+		return name;
+	}
+	
+	/**
+	 * Gets a future that is completed once the loading is finished. The future
+	 * is completed with {@code true}, if the contents of the module were loaded,
+	 * {@code false}, if the module could not be loaded at all, or exceptionally,
+	 * if the loading failed. Completing or cancelling the returned future does
+	 * not affect the loading itself.
+	 * @return The future.
+	 */
+	public CompletableFuture<Boolean> future() {
+		return future.copy();
+	}
+	
+	/**
+	 * Waits for the loading to finish, see {@linkplain #future()}. If the loading
+	 * failed, its cause is thrown.
+	 * @return {@code true}, if the contents of the module were loaded, otherwise
+	 * {@code false}.
+	 */
+	public boolean await() throws Exception {
+		try {
+			return future.join();
+		} catch(CompletionException ex) {
+			Throwable cause = ex.getCause();
+			
+			if(cause instanceof Exception) throw (Exception) cause;
+			if(cause instanceof Error)     throw (Error)     cause;
+			throw ex;
+		}
+	}
+	
+	/**
+	 * Checks whether the loading is finished, either successfully or not.
+	 * @return {@code true}, if the loading is finished, otherwise {@code false}.
+	 */
+	public boolean isDone() {
+		return future.isDone();
+	}
+	
+	/**
+	 * Gets the number of classes of the module loaded so far, including those
+	 * requested using {@linkplain #loadClass(String)}.
+	 * @return The number of loaded classes.
+	 */
+	public int loadedCount() {
+		return session.loadedCount();
+	}
+	
+	/**
+	 * Gets the total number of classes of the module.
+	 * @return The number of classes, or {@code -1}, if not known yet.
+	 */
+	public int totalCount() {
+		return total;
+	}
+	
+	/**
+	 * Gets the progress of the loading as a fraction of classes loaded so far.
+	 * @return The progress, in range from {@code 0.0} to {@code 1.0}.
+	 */
+	public double progress() {
+		if(future.isDone()) {
+			return 1.0;
+		}
+		
+		int total = this.total;
+		return total > 0 ? Math.min(1.0, (double) session.loadedCount() / total) : 0.0;
+	}
+	
+	/**
+	 * Loads a class of the module with the given {@code name}. If the class
+	 * was not loaded in the background yet, it is loaded on the calling thread
+	 * along with its required classes, without waiting for the loading to finish.
+	 * @param name the class name
+	 * @return The class object.
+	 */
+	public Class<?> loadClass(String name) throws Exception {
+		if(contentLoader != null && !session.isLoaded(name) && !future.isDone()) {
+			Class<?> clazz = contentLoader.loadClassConcurrently(RootClassLoader.classNameToPath(name));
+			
+			if(clazz != null) {
+				return clazz;
+			}
+			
+			// The loading has finished in the meantime
+		}
+		
+		return Class.forName(name, false, loader);
+	}
+}
\ No newline at end of file
@@ -1,18 +1,35 @@
 package sune.util.load;
 
+import java.io.File;
 import java.lang.module.Configuration;
+import java.lang.module.FindException;
+import java.lang.module.ModuleDescriptor;
 import java.lang.module.ModuleFinder;
+import java.lang.module.ModuleReference;
 import java.lang.module.ResolvedModule;
 import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 import java.nio.file.Path;
-import java.util.HashSet;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
 
 import sun.misc.Unsafe;
+import sune.util.load.LoadEvents.ModuleResolveEvent;
 
 /**
  * <p>
@@ -47,30 +64,87 @@ public final class ModuleLoader {
 	private static Map<String, ResolvedModule> resolvedModulesNames;
 	private static Set<ResolvedModule>         resolvedModules;
 	
+	/**
+	 * Whether all the above properties are initialized. Since it is written
+	 * only after all of them, reading it also makes them visible.
+	 */
+	private static volatile boolean initialized;
+	
+	/**
+	 * Lock of registering of modules, so that a module is always registered
+	 * in all the structures at once. Lookups do not use the lock.
+	 */
+	private static final Object lock = new Object();
+	
+	/**
+	 * Locks of loading of modules by their names, so that a module with the same
+	 * name is never resolved by multiple threads at once. A lock is removed once
+	 * no thread uses it.
+	 */
+	private static final Map<String, LoadLock> loadLocks = new ConcurrentHashMap<>();
+	
+	/**
+	 * Default maximum number of modules resolved in a single configuration
+	 * when loading multiple modules at once.
+	 */
+	public static final int DEFAULT_BATCH_SIZE = 32;
+	
+	private static final void ensureInitialized() {
+		if(initialized) {
+			return;
+		}
+		
+		synchronized(lock) {
+			if(!initialized) {
+				ensureBootModules();
+				ensureResolvedModules();
+				initialized = true;
+			}
+		}
+	}
+	
 	@SuppressWarnings("unchecked")
 	private static final void ensureBootModules() {
 		try {
 			if(bootModulesNames == null) {
 				Field field = ModuleLayer.class.getDeclaredField("nameToModule");
 				long offset = unsafe.objectFieldOffset(field);
-				bootModulesNames = (Map<String, Module>) unsafe.getObject(parentLayer, offset);
+				Map<String, Module> modules = (Map<String, Module>) unsafe.getObject(parentLayer, offset);
+				Map<String, Module> concurrentModules = new ConcurrentHashMap<>(modules);
+				unsafe.putObject(parentLayer, offset, concurrentModules);
+				bootModulesNames = concurrentModules;
 			}
 			
 			if(bootModules == null) {
 				Field field = ModuleLayer.class.getDeclaredField("modules");
 				long offset = unsafe.objectFieldOffset(field);
-				bootModules = new HashSet<>(parentLayer.modules());
-				unsafe.putObject(parentLayer, offset, bootModules);
+				Set<Module> modules = ConcurrentHashMap.newKeySet();
+				modules.addAll(parentLayer.modules());
+				unsafe.putObject(parentLayer, offset, modules);
+				bootModules = modules;
 			}
 			
 			if(bootModuleLayers == null) {
+				// Ensure the list of all layers is initialized
+				Method method = ModuleLayer.class.getDeclaredMethod("layers");
+				Reflection.setAccessible(method, true);
+				method.invoke(parentLayer);
+				
 				Class<?> clazz = Class.forName("java.util.Collections$UnmodifiableList");
-				Field field = clazz.getDeclaredField("list");
-				long offset = unsafe.objectFieldOffset(field);
+				Class<?> clazzCollection = Class.forName("java.util.Collections$UnmodifiableCollection");
+				long offset = unsafe.objectFieldOffset(clazz.getDeclaredField("list"));
+				long offsetCollection = unsafe.objectFieldOffset(clazzCollection.getDeclaredField("c"));
 				Field field2 = ModuleLayer.class.getDeclaredField("allLayers");
 				long offset2 = unsafe.objectFieldOffset(field2);
 				List<ModuleLayer> layers = (List<ModuleLayer>) unsafe.getObject(parentLayer, offset2);
-				bootModuleLayers = (List<ModuleLayer>) unsafe.getObject(layers, offset);
+				List<ModuleLayer> list = (List<ModuleLayer>) unsafe.getObject(layers, offset);
+				
+				// The layers are iterated much more often than added, both fields
+				// of the unmodifiable list must refer to the same list.
+				List<ModuleLayer> concurrentLayers = new CopyOnWriteArrayList<>(list);
+				unsafe.putObject(layers, offset, concurrentLayers);
+				unsafe.putObject(layers, offsetCollection, concurrentLayers);
+				bootModuleLayers = concurrentLayers;
 			}
 		} catch(Exception ex) {
 			throw new IllegalStateException("Unable to initialize properties for boot modules", ex);
@@ -90,7 +164,7 @@ public final class ModuleLoader {
 				Map<String, ResolvedModule> modules = (Map<String, ResolvedModule>) unsafe.getObject(configuration, offset2);
 				Object[] table = (Object[]) unsafe.getObject(modules, offset);
 				
-				Map<String, ResolvedModule> mapElements = new LinkedHashMap<>();
+				Map<String, ResolvedModule> mapElements = new ConcurrentHashMap<>();
 				for(int i = 0, l = table.length; i < l; i+=2) {
 					if(table[i] != null) {
 						mapElements.put((String) table[i], (ResolvedModule) table[i+1]);
@@ -111,7 +185,7 @@ public final class ModuleLoader {
 				Set<ResolvedModule> modules = (Set<ResolvedModule>) unsafe.getObject(configuration, offset2);
 				Object[] elements = (Object[]) unsafe.getObject(modules, offset);
 				
-				Set<ResolvedModule> setElements = new LinkedHashSet<>();
+				Set<ResolvedModule> setElements = ConcurrentHashMap.newKeySet();
 				for(Object module : elements) {
 					if(module != null) {
 						setElements.add((ResolvedModule) module);
@@ -136,13 +210,20 @@ public final class ModuleLoader {
 	 * @return The module instance.
 	 */
 	public static final Module addModule(ModuleLayer layer, String name) {
-		ensureBootModules();
+		ensureInitialized();
 		Module module = layer.findModule(name).get();
 		
 		if(module != null) {
-			bootModulesNames.put(name, module);
-			bootModules.add(module);
-			bootModuleLayers.add(layer);
+			synchronized(lock) {
+				bootModules.add(module);
+				
+				if(!bootModuleLayers.contains(layer)) {
+					bootModuleLayers.add(layer);
+				}
+				
+				// Make the module visible only once it is fully registered
+				bootModulesNames.put(name, module);
+			}
 		}
 		
 		return module;
@@ -158,17 +239,43 @@ public final class ModuleLoader {
 	 * @return The resolved module instance.
 	 */
 	public static final ResolvedModule addResolvedModule(Configuration config, String name) {
-		ensureResolvedModules();
+		ensureInitialized();
 		ResolvedModule module = config.findModule(name).get();
 		
 		if(module != null) {
-			resolvedModulesNames.put(name, module);
-			resolvedModules.add(module);
+			synchronized(lock) {
+				resolvedModules.add(module);
+				resolvedModulesNames.put(name, module);
+			}
 		}
 		
 		return module;
 	}
 	
+	/**
+	 * Resolves the given root modules using the given {@code finder}, defines
+	 * them in a new module layer with the given {@code loader} and registers
+	 * all the modules of the resolved configuration. The modules are resolved
+	 * and defined without holding the registry lock.
+	 */
+	private static final void define(ModuleFinder finder, Collection<String> roots, ClassLoader loader) {
+		Configuration config = parentLayer.configuration().resolve(finder, emptyFinder, roots);
+		ModuleLayer layer = parentLayer.defineModulesWithOneLoader(config, loader);
+		
+		// New classes may be visible through the loader now
+		ClassPresenceCache.clearAbsent(loader);
+		
+		synchronized(lock) {
+			for(ResolvedModule module : config.modules()) {
+				String name = module.name();
+				
+				if(addModule(layer, name) != null) {
+					addResolvedModule(config, name);
+				}
+			}
+		}
+	}
+	
 	/**
 	 * Loads a file located at the given {@code path} (JAR or ZIP) with
 	 * the given {@code name} as its name to the given {@code loader}.
@@ -181,13 +288,439 @@ public final class ModuleLoader {
 	 * could not be loaded.
 	 */
 	public static final ResolvedModule loadModule(Path path, String name, ClassLoader loader) {
-		ModuleFinder finder = ModuleFinder.of(path);
-		Configuration config = parentLayer.configuration().resolve(finder, emptyFinder, List.of(name));
-		ModuleLayer layer = parentLayer.defineModulesWithOneLoader(config, loader);
+		boolean enabled = LoadListeners.enabled();
+		long start = enabled ? System.nanoTime() : 0L;
+		ModuleResolveEvent event = LoadEvents.enabled() ? new ModuleResolveEvent() : null;
+		if(event != null) event.begin();
+		
+		ensureInitialized();
+		
+		ResolvedModule module;
+		LoadLock loadLock = lockLoading(name);
+		try {
+			// The module may have been loaded by another thread in the meantime
+			if((module = resolvedModulesNames.get(name)) == null) {
+				define(ModuleFinder.of(path), List.of(name), loader);
+				module = resolvedModulesNames.get(name);
+			}
+		} finally {
+			unlockLoading(name, loadLock);
+		}
+		
+		if(enabled && module != null) {
+			LoadListeners.moduleRegistered(name, System.nanoTime() - start);
+		}
+		
+		if(event != null && event.shouldCommit()) {
+			event.moduleName = name;
+			event.path = path.toString();
+			event.success = module != null;
+			event.commit();
+		}
+		
+		return module;
+	}
+	
+	/**
+	 * <p>
+	 * Reloads a module with the given {@code name} from a file located at
+	 * the given {@code path} (JAR or ZIP), e.g. a new version of the module,
+	 * to the given {@code loader}. The module is resolved in a new configuration,
+	 * defined in a new module layer and replaces the previous version of the module
+	 * in the boot module layer. If the module is not loaded yet, it is just loaded.
+	 * </p>
+	 * 
+	 * <p>
+	 * Classes cannot be redefined in a class loader, therefore the loader must
+	 * be a class loader where the classes of the previous version are not defined,
+	 * e.g. a new one, otherwise an {@linkplain IllegalArgumentException} is thrown.
+	 * Modules and classes that already refer to the previous version
+	 * keep referring to it. Note that the module is not visible while it is being
+	 * resolved, since the previous version must not be read by the new one.
+	 * Modules of the boot module layer itself cannot be reloaded.
+	 * </p>
+	 * 
+	 * @param path the path to the {@code .jar} or {@code .zip} file
+	 * @param name the module's name
+	 * @param loader the class loader where to define the module
+	 * @return The resolved module instance, or {@code null} if the module
+	 * could not be loaded.
+	 */
+	public static final ResolvedModule reloadModule(Path path, String name, ClassLoader loader) {
+		boolean enabled = LoadListeners.enabled();
+		long start = enabled ? System.nanoTime() : 0L;
+		ModuleResolveEvent event = LoadEvents.enabled() ? new ModuleResolveEvent() : null;
+		if(event != null) event.begin();
+		
+		ensureInitialized();
 		
-		return addModule(layer, name) != null
-					? addResolvedModule(config, name)
-					: null;
+		ResolvedModule module;
+		LoadLock loadLock = lockLoading(name);
+		try {
+			Module previousModule = bootModulesNames.get(name);
+			
+			if(previousModule != null && previousModule.getLayer() == parentLayer) {
+				throw new IllegalArgumentException("Module of the boot layer cannot be reloaded: " + name);
+			}
+			
+			// The previous classes would be used instead of the new ones otherwise
+			if(previousModule != null && definesClassesOf(loader, previousModule)) {
+				throw new IllegalArgumentException("Class loader already contains classes of module: " + name);
+			}
+			
+			ResolvedModule previous;
+			synchronized(lock) {
+				// Automatic modules read all the modules of the parent configuration,
+				// the new version would read the previous one as well otherwise.
+				if((previous = resolvedModulesNames.remove(name)) != null) {
+					resolvedModules.remove(previous);
+				}
+			}
+			
+			try {
+				define(ModuleFinder.of(path), List.of(name), loader);
+			} finally {
+				synchronized(lock) {
+					if(!resolvedModulesNames.containsKey(name) && previous != null) {
+						// Unable to load the new version, keep the previous one
+						resolvedModules.add(previous);
+						resolvedModulesNames.put(name, previous);
+					} else if(previousModule != null && bootModulesNames.get(name) != previousModule) {
+						bootModules.remove(previousModule);
+						
+						// Forget the previous layer, if none of its modules is registered anymore
+						ModuleLayer layer = previousModule.getLayer();
+						if(layer != null && layer.modules().stream().noneMatch(bootModules::contains)) {
+							bootModuleLayers.remove(layer);
+						}
+					}
+				}
+			}
+			
+			module = resolvedModulesNames.get(name);
+			
+			if(module == previous) {
+				module = null; // The new version was not loaded
+			}
+		} finally {
+			unlockLoading(name, loadLock);
+		}
+		
+		if(enabled && module != null) {
+			LoadListeners.moduleRegistered(name, System.nanoTime() - start);
+		}
+		
+		if(event != null && event.shouldCommit()) {
+			event.moduleName = name;
+			event.path = path.toString();
+			event.success = module != null;
+			event.commit();
+		}
+		
+		return module;
+	}
+	
+	/**
+	 * Checks whether the given {@code loader} already defines classes of
+	 * the given {@code module}, i.e. the module is defined to the loader, or
+	 * the loader defines some of the module's packages.
+	 */
+	private static final boolean definesClassesOf(ClassLoader loader, Module module) {
+		if(module.getClassLoader() == loader) {
+			return true;
+		}
+		
+		for(String packageName : module.getPackages()) {
+			if(loader.getDefinedPackage(packageName) != null) {
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Acquires the loading lock of a module with the given {@code name}.
+	 * The lock must be released using {@linkplain #unlockLoading(String, LoadLock)}.
+	 */
+	private static final LoadLock lockLoading(String name) {
+		// Count the user first, so that the lock is not removed in the meantime
+		LoadLock loadLock = loadLocks.compute(name, (k, v) -> {
+			if(v == null) {
+				v = new LoadLock();
+			}
+			
+			++v.users;
+			return v;
+		});
+		
+		loadLock.lock();
+		return loadLock;
+	}
+	
+	/**
+	 * Releases the given loading lock of a module with the given {@code name}
+	 * and removes it, if no other thread uses it.
+	 */
+	private static final void unlockLoading(String name, LoadLock loadLock) {
+		loadLock.unlock();
+		loadLocks.computeIfPresent(name, (k, v) -> --v.users == 0 ? null : v);
+	}
+	
+	/**
+	 * Runs the given {@code action} while holding the loading locks of all
+	 * the given names. The locks are always acquired in the order of the names,
+	 * so that multiple callers never wait for each other's locks.
+	 */
+	private static final void withLoadLocks(Collection<String> names, Runnable action) {
+		Set<String> sorted = new TreeSet<>(names);
+		List<LoadLock> locks = new ArrayList<>(sorted.size());
+		
+		try {
+			for(String name : sorted) {
+				locks.add(lockLoading(name));
+			}
+			
+			action.run();
+		} finally {
+			Iterator<String> iterator = sorted.iterator();
+			for(LoadLock loadLock : locks) {
+				unlockLoading(iterator.next(), loadLock);
+			}
+		}
+	}
+	
+	/**
+	 * Scans the files at the given paths in parallel and returns all
+	 * the modules found in them mapped by their names.
+	 */
+	private static final Map<String, ModuleReference> scan(Collection<Path> paths) {
+		return paths.parallelStream()
+			.flatMap((path) -> ModuleFinder.of(path).findAll().stream())
+			.collect(Collectors.toMap((ref) -> ref.descriptor().name(), (ref) -> ref, (a, b) -> {
+				throw new FindException("Two files contain module " + a.descriptor().name());
+			}));
+	}
+	
+	/**
+	 * Returns a finder of the given root modules and all the modules they
+	 * require, transitively, that are among the given {@code references}
+	 * and are not loaded yet.
+	 */
+	private static final ModuleFinder finderOf(Collection<String> roots, Map<String, ModuleReference> references) {
+		Map<String, ModuleReference> found = new LinkedHashMap<>();
+		Deque<String> queue = new ArrayDeque<>(roots);
+		
+		for(String name; (name = queue.poll()) != null;) {
+			ModuleReference reference = references.get(name);
+			
+			if(reference == null
+					|| found.containsKey(name)
+					|| resolvedModulesNames.containsKey(name)) {
+				continue;
+			}
+			
+			found.put(name, reference);
+			
+			for(ModuleDescriptor.Requires requires : reference.descriptor().requires()) {
+				queue.add(requires.name());
+			}
+		}
+		
+		return new ReferencesFinder(found);
+	}
+	
+	/**
+	 * Loads files located at the given paths (JARs or ZIPs) with the given
+	 * names as their names to the given {@code loader}, resolving at most
+	 * {@value #DEFAULT_BATCH_SIZE} modules in a single configuration.
+	 * See {@linkplain #loadModules(Map, ClassLoader, int)} for more information.
+	 * @param modules the paths to the {@code .jar} or {@code .zip} files mapped
+	 * by the modules' names
+	 * @param loader the class loader where to define the modules
+	 * @return The resolved module instances mapped by the modules' names,
+	 * in the order of the given map.
+	 */
+	public static final Map<String, ResolvedModule> loadModules(Map<String, Path> modules, ClassLoader loader) {
+		return loadModules(modules, loader, DEFAULT_BATCH_SIZE);
+	}
+	
+	/**
+	 * <p>
+	 * Loads files located at the given paths (JARs or ZIPs) with the given
+	 * names as their names to the given {@code loader}. This acutally makes
+	 * the modules declared in every class throughout the application, however
+	 * does not load the modules' content themselves.
+	 * </p>
+	 * 
+	 * <p>
+	 * Unlike loading the modules one by one using {@linkplain #loadModule(Path,
+	 * String, ClassLoader) loadModule}, the files are scanned in parallel and
+	 * the modules are resolved in batches of the given size, each in a single
+	 * configuration and defined in a single module layer. Modules required by
+	 * a batch are resolved in it as well. Modules that are already loaded are
+	 * not loaded again.
+	 * </p>
+	 * 
+	 * <p>
+	 * Note that automatic modules read all the other modules in the same
+	 * configuration, so the cost of resolving a configuration grows faster
+	 * than the number of its modules. Resolving a large number of automatic
+	 * modules in moderately sized batches is therefore faster than resolving
+	 * them all at once.
+	 * </p>
+	 * 
+	 * @param modules the paths to the {@code .jar} or {@code .zip} files mapped
+	 * by the modules' names
+	 * @param loader the class loader where to define the modules
+	 * @param batchSize the maximum number of modules resolved together,
+	 * {@code Integer.MAX_VALUE} resolves all of them in a single configuration
+	 * @return The resolved module instances mapped by the modules' names,
+	 * in the order of the given map.
+	 */
+	public static final Map<String, ResolvedModule> loadModules(Map<String, Path> modules, ClassLoader loader,
+			int batchSize) {
+		if(batchSize <= 0) {
+			throw new IllegalArgumentException("Invalid batch size: " + batchSize);
+		}
+		
+		boolean enabled = LoadListeners.enabled();
+		long start = enabled ? System.nanoTime() : 0L;
+		ModuleResolveEvent event = LoadEvents.enabled() ? new ModuleResolveEvent() : null;
+		if(event != null) event.begin();
+		
+		ensureInitialized();
+		
+		List<String> loaded = new ArrayList<>();
+		withLoadLocks(modules.keySet(), () -> {
+			Map<String, Path> missing = new LinkedHashMap<>(modules);
+			missing.keySet().removeIf(resolvedModulesNames::containsKey);
+			
+			if(missing.isEmpty()) {
+				return;
+			}
+			
+			Map<String, ModuleReference> references = scan(missing.values());
+			List<String> names = new ArrayList<>(missing.keySet());
+			
+			for(int i = 0, l = names.size(), e; i < l; i = e) {
+				e = (int) Math.min((long) i + batchSize, l);
+				List<String> roots = new ArrayList<>(names.subList(i, e));
+				roots.removeIf(resolvedModulesNames::containsKey); // Resolved by a previous batch
+				
+				if(roots.isEmpty()) {
+					continue;
+				}
+				
+				define(finderOf(roots, references), roots, loader);
+				loaded.addAll(roots);
+			}
+		});
+		
+		// Keep the order of the given map
+		Map<String, ResolvedModule> result = registered(modules.keySet());
+		
+		if(enabled) {
+			moduleRegistered(result, loaded, System.nanoTime() - start);
+		}
+		
+		if(event != null && event.shouldCommit()) {
+			event.moduleName = String.join(",", modules.keySet());
+			event.path = modules.values().stream().map(Path::toString)
+							.collect(Collectors.joining(File.pathSeparator));
+			event.success = !result.containsValue(null);
+			event.commit();
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * <p>
+	 * Loads modules with the given names that are found by the given
+	 * {@code finder} to the given {@code loader}. This acutally makes
+	 * the modules declared in every class throughout the application,
+	 * however does not load the modules' content themselves.
+	 * </p>
+	 * 
+	 * <p>
+	 * All the modules are resolved in a single configuration and defined
+	 * in a single module layer. This allows to load modules that do not exist
+	 * as files, e.g. modules with generated descriptors. Modules that are
+	 * already loaded are not loaded again.
+	 * </p>
+	 * 
+	 * @param finder the finder of the modules
+	 * @param names the modules' names
+	 * @param loader the class loader where to define the modules
+	 * @return The resolved module instances mapped by the modules' names,
+	 * in the order of the given names.
+	 */
+	public static final Map<String, ResolvedModule> loadModules(ModuleFinder finder, Collection<String> names,
+			ClassLoader loader) {
+		boolean enabled = LoadListeners.enabled();
+		long start = enabled ? System.nanoTime() : 0L;
+		ModuleResolveEvent event = LoadEvents.enabled() ? new ModuleResolveEvent() : null;
+		if(event != null) event.begin();
+		
+		ensureInitialized();
+		
+		List<String> loaded = new ArrayList<>();
+		withLoadLocks(names, () -> {
+			List<String> roots = new ArrayList<>(new LinkedHashSet<>(names));
+			roots.removeIf(resolvedModulesNames::containsKey);
+			
+			if(!roots.isEmpty()) {
+				define(finder, roots, loader);
+				loaded.addAll(roots);
+			}
+		});
+		
+		Map<String, ResolvedModule> result = registered(names);
+		
+		if(enabled) {
+			moduleRegistered(result, loaded, System.nanoTime() - start);
+		}
+		
+		if(event != null && event.shouldCommit()) {
+			event.moduleName = String.join(",", result.keySet());
+			event.success = !result.containsValue(null);
+			event.commit();
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Reports the modules with the given {@code names} that were loaded by
+	 * a single call and are registered in the given {@code result}. The given
+	 * duration of the whole call is split evenly among the modules, so that
+	 * the total duration reported is the duration of the call.
+	 */
+	private static final void moduleRegistered(Map<String, ResolvedModule> result, List<String> names,
+			long nanos) {
+		List<String> registered = new ArrayList<>(names.size());
+		for(String name : names) {
+			if(result.get(name) != null) {
+				registered.add(name);
+			}
+		}
+		
+		int count = registered.size();
+		for(int i = 0; i < count; ++i) {
+			// The remainder is added to the first module
+			long share = nanos / count + (i == 0 ? nanos % count : 0L);
+			LoadListeners.moduleRegistered(registered.get(i), share);
+		}
+	}
+	
+	private static final Map<String, ResolvedModule> registered(Collection<String> names) {
+		Map<String, ResolvedModule> modules = new LinkedHashMap<>();
+		for(String name : names) {
+			modules.put(name, resolvedModulesNames.get(name));
+		}
+		
+		return Collections.unmodifiableMap(modules);
 	}
 	
 	/**
@@ -207,7 +740,41 @@ public final class ModuleLoader {
 	 * @return The resolved module, if the module is loaded, otherwise {@code null}.
 	 */
 	public static final ResolvedModule moduleOfName(String name) {
-		ensureResolvedModules();
+		ensureInitialized();
 		return resolvedModulesNames.get(name);
 	}
+	
+	/**
+	 * Finder of modules from the given references.
+	 */
+	static final class ReferencesFinder implements ModuleFinder {
+		
+		private final Map<String, ModuleReference> references;
+		private final Set<ModuleReference> all;
+		
+		ReferencesFinder(Map<String, ModuleReference> references) {
+			this.references = references;
+			this.all = Set.copyOf(references.values());
+		}
+		
+		@Override
+		public Optional<ModuleReference> find(String name) {
+			return Optional.ofNullable(references.get(name));
+		}
+		
+		@Override
+		public Set<ModuleReference> findAll() {
+			return all;
+		}
+	}
+	
+	/**
+	 * Loading lock of a module with the number of threads using it.
+	 */
+	@SuppressWarnings("serial")
+	private static final class LoadLock extends ReentrantLock {
+		
+		// Guarded by the map of the locks
+		int users;
+	}
 }
\ No newline at end of file
@@ -0,0 +1,323 @@
+package sune.util.load;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.module.ModuleDescriptor;
+import java.nio.ByteBuffer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * <p>
+ * Persistent index of packages of a module JAR file. The index contains
+ * names of all packages in the JAR file and the compiled module descriptor,
+ * if the JAR file contains one, so that a descriptor of the module can be
+ * created without opening the JAR file at all.
+ * </p>
+ * 
+ * <p>
+ * The index is built by a single scan of the central directory of the JAR
+ * file and is stored in a file either next to the JAR file or in a given
+ * cache directory. It is keyed by the size and last modified time of the JAR
+ * file only, so that a stored index can be used without reading the JAR file.
+ * When the stored index does not match the JAR file, or cannot be read, it is
+ * rebuilt and stored again. If the index cannot be stored, e.g. due to
+ * a read-only file system, it is still usable, but only in memory.
+ * </p>
+ * 
+ * @author Sune
+ * @see ModuleLazyLoader#loadModuleDeferred(ModulePackageIndex, String, ClassLoader)
+ */
+public final class ModulePackageIndex {
+	
+	private static final String FILE_EXTENSION = ".pkgs";
+	private static final int MAGIC   = 0x53504958; // SPIX
+	private static final int VERSION = 1;
+	
+	private static final String FILE_MODULE_INFO = "module-info.class";
+	private static final String DIR_META_INF     = "META-INF/";
+	private static final String DIR_VERSIONS     = "META-INF/versions/";
+	
+	private final Path jar;
+	private final Path path;
+	private final long size;
+	private final long lastModified;
+	private final byte[] moduleInfo;
+	private final Set<String> packages;
+	
+	private ModulePackageIndex(Path jar, Path path, long size, long lastModified, byte[] moduleInfo,
+			Set<String> packages) {
+		this.jar = jar;
+		this.path = path;
+		this.size = size;
+		this.lastModified = lastModified;
+		this.moduleInfo = moduleInfo;
+		this.packages = packages;
+	}
+	
+	/**
+	 * Gets a package index of a JAR file located at the given {@code jar}
+	 * path. The index file is located next to the JAR file.
+	 * @param jar the path of the JAR file
+	 * @return The package index.
+	 */
+	public static final ModulePackageIndex of(Path jar) throws IOException {
+		Path file = jar.toAbsolutePath();
+		return load(jar, file.resolveSibling(file.getFileName() + FILE_EXTENSION));
+	}
+	
+	/**
+	 * Gets a package index of a JAR file located at the given {@code jar}
+	 * path. The index file is located in the given {@code cacheDir} directory.
+	 * @param jar the path of the JAR file
+	 * @param cacheDir the directory where to store the index file
+	 * @return The package index.
+	 */
+	public static final ModulePackageIndex of(Path jar, Path cacheDir) throws IOException {
+		Path file = jar.toAbsolutePath().normalize();
+		String name = String.format("%s-%08x%s", file.getFileName(), file.toString().hashCode(), FILE_EXTENSION);
+		return load(jar, cacheDir.resolve(name));
+	}
+	
+	private static final ModulePackageIndex load(Path jar, Path indexFile) throws IOException {
+		Objects.requireNonNull(jar);
+		
+		long size = Files.size(jar);
+		long lastModified = Files.getLastModifiedTime(jar).toMillis();
+		ModulePackageIndex index = read(jar, indexFile, size, lastModified);
+		
+		if(index == null) {
+			index = build(jar, indexFile, size, lastModified);
+			index.write();
+		}
+		
+		return index;
+	}
+	
+	private static final ModulePackageIndex read(Path jar, Path file, long size, long lastModified) {
+		if(!Files.isRegularFile(file)) {
+			return null;
+		}
+		
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			long fileSize = Files.size(file);
+			
+			if(in.readInt() != MAGIC || in.readInt() != VERSION
+					|| in.readLong() != size || in.readLong() != lastModified) {
+				return null; // Stale or not an index file at all
+			}
+			
+			byte[] moduleInfo = null;
+			int length = in.readInt();
+			if(length >= 0) {
+				moduleInfo = new byte[checkCount(length, fileSize, 1)];
+				in.readFully(moduleInfo);
+			}
+			
+			// Each package name is stored in at least 2 bytes
+			int count = checkCount(in.readInt(), fileSize, 2);
+			Set<String> packages = new HashSet<>(count * 4 / 3 + 1);
+			for(int i = 0; i < count; ++i) {
+				packages.add(in.readUTF());
+			}
+			
+			return new ModulePackageIndex(jar, file, size, lastModified, moduleInfo, packages);
+		} catch(IOException | RuntimeException ex) {
+			return null; // Corrupted, will be rebuilt
+		}
+	}
+	
+	/**
+	 * Checks that the given {@code count} of items read from an index file,
+	 * each stored in at least {@code itemSize} bytes, fits in the file of
+	 * the given {@code size}, so that a corrupted count does not cause a huge
+	 * allocation.
+	 */
+	private static final int checkCount(int count, long size, int itemSize) throws IOException {
+		if(count < 0 || (long) count * itemSize > size) {
+			throw new IOException("Invalid count: " + count);
+		}
+		
+		return count;
+	}
+	
+	private static final ModulePackageIndex build(Path jar, Path file, long size, long lastModified)
+			throws IOException {
+		Set<String> packages = new HashSet<>();
+		byte[] moduleInfo = null;
+		
+		try(MappedJarReader reader = MappedJarReader.open(jar)) {
+			boolean multiRelease = reader.isMultiRelease();
+			int version = Runtime.version().feature();
+			
+			for(String name : reader.names()) {
+				if(name.startsWith(DIR_META_INF)) {
+					if(!multiRelease || !name.startsWith(DIR_VERSIONS)) {
+						continue;
+					}
+					
+					// Only versioned entries of this or a lower version are visible
+					int index = name.indexOf('/', DIR_VERSIONS.length());
+					
+					try {
+						if(index < 0 || Integer.parseInt(name.substring(DIR_VERSIONS.length(), index)) > version) {
+							continue;
+						}
+					} catch(NumberFormatException ex) {
+						continue;
+					}
+					
+					name = name.substring(index + 1);
+				}
+				
+				String packageName = packageName(name);
+				
+				if(packageName != null) {
+					packages.add(packageName);
+				}
+			}
+			
+			Optional<ByteBuffer> buffer = reader.read(FILE_MODULE_INFO);
+			if(buffer.isPresent()) {
+				ByteBuffer bytes = buffer.get();
+				moduleInfo = new byte[bytes.remaining()];
+				bytes.get(moduleInfo);
+			}
+		}
+		
+		return new ModulePackageIndex(jar, file, size, lastModified, moduleInfo, packages);
+	}
+	
+	/**
+	 * Gets the name of a package of an entry with the given {@code name}, or
+	 * {@code null}, if the entry is not in a package, i.e. it is a directory,
+	 * it is in the root directory, or its directory is not a legal package name.
+	 */
+	private static final String packageName(String name) {
+		int index = name.lastIndexOf('/');
+		
+		if(index <= 0 || index == name.length() - 1) {
+			return null;
+		}
+		
+		String packageName = name.substring(0, index).replace('/', '.');
+		for(String part : packageName.split("\\.", -1)) {
+			if(part.isEmpty() || !Character.isJavaIdentifierStart(part.charAt(0))) {
+				return null;
+			}
+			
+			for(int i = 1, l = part.length(); i < l; ++i) {
+				if(!Character.isJavaIdentifierPart(part.charAt(i))) {
+					return null;
+				}
+			}
+		}
+		
+		return packageName;
+	}
+	
+	private final void write() {
+		Path temp = null;
+		try {
+			Files.createDirectories(path.toAbsolutePath().getParent());
+			temp = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+			
+			try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeLong(size);
+				out.writeLong(lastModified);
+				
+				if(moduleInfo != null) {
+					out.writeInt(moduleInfo.length);
+					out.write(moduleInfo);
+				} else {
+					out.writeInt(-1);
+				}
+				
+				out.writeInt(packages.size());
+				for(String name : packages) {
+					out.writeUTF(name);
+				}
+			}
+			
+			try {
+				Files.move(temp, path, ATOMIC_MOVE, REPLACE_EXISTING);
+			} catch(AtomicMoveNotSupportedException ex) {
+				Files.move(temp, path, REPLACE_EXISTING);
+			}
+			
+			temp = null;
+		} catch(IOException ex) {
+			// Unable to store the index, it will be used only in memory
+		} finally {
+			if(temp != null) {
+				try {
+					Files.deleteIfExists(temp);
+				} catch(IOException ex) {
+					// Ignore
+				}
+			}
+		}
+	}
+	
+	/**
+	 * <p>
+	 * Creates a descriptor of the module in the JAR file. If the JAR file
+	 * contains a module descriptor, it is used, otherwise a descriptor of
+	 * an automatic module with the given {@code name} is created.
+	 * </p>
+	 * 
+	 * <p>
+	 * Note that unlike descriptors of automatic modules created by
+	 * {@linkplain java.lang.module.ModuleFinder ModuleFinder}, the descriptor
+	 * of an automatic module does not contain any provided services.
+	 * </p>
+	 * 
+	 * @param name the name of an automatic module
+	 * @return The module descriptor.
+	 */
+	public ModuleDescriptor descriptor(String name) {
+		if(moduleInfo != null) {
+			return ModuleDescriptor.read(ByteBuffer.wrap(moduleInfo), () -> packages);
+		}
+		
+		return ModuleDescriptor.newAutomaticModule(name).packages(packages).build();
+	}
+	
+	/**
+	 * Gets names of all packages in the JAR file.
+	 * @return The set of names.
+	 */
+	public Set<String> packages() {
+		return Collections.unmodifiableSet(packages);
+	}
+	
+	/**
+	 * Gets the path of the JAR file.
+	 * @return The path of the JAR file.
+	 */
+	public Path jar() {
+		return jar;
+	}
+	
+	/**
+	 * Gets the path of the index file.
+	 * @return The path of the index file.
+	 */
+	public Path path() {
+		return path;
+	}
+}
\ No newline at end of file
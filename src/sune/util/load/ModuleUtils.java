@@ -7,6 +7,7 @@ import java.io.IOException;
 import java.lang.module.Configuration;
 import java.lang.module.ModuleDescriptor;
 import java.lang.module.ModuleFinder;
+import java.lang.module.ModuleReader;
 import java.lang.module.ModuleReference;
 import java.net.URI;
 import java.net.URISyntaxException;
@@ -14,7 +15,12 @@ import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -91,29 +97,43 @@ public final class ModuleUtils {
 	
 	/**
 	 * Defines a dummy module with the given name in the given class loader.
-	 * This action requires creation of a temporary file that can be then loaded
-	 * and discarded afterwards.
+	 * The module is created in memory, no file is needed.
 	 * If a module with the given name is already loaded, then nothing is done.
 	 * @param name the dummy module's name
 	 * @param loader the class loader
 	 */
 	public static final void defineDummyModule(String name, ClassLoader loader) {
-		if(isModuleLoaded(name)) {
-			return;
+		defineDummyModules(List.of(name), loader);
+	}
+	
+	/**
+	 * Defines dummy modules with the given names in the given class loader.
+	 * The modules are created in memory and all of them are resolved at once.
+	 * Modules with names of already loaded modules are skipped.
+	 * @param names the dummy modules' names
+	 * @param loader the class loader
+	 */
+	public static final void defineDummyModules(Collection<String> names, ClassLoader loader) {
+		Map<String, ModuleReference> references = new LinkedHashMap<>();
+		for(String name : names) {
+			if(!isModuleLoaded(name)) {
+				references.computeIfAbsent(name, DummyModuleReference::new);
+			}
 		}
 		
-		try {
-			defineDummyModule(Files.createTempFile("dummy-module-" + name, ".jar"), name, loader);
-		} catch(IOException ex) {
-			throw new IllegalStateException("Unable to define a dummy module: " + name, ex);
+		if(references.isEmpty()) {
+			return;
 		}
+		
+		ModuleLoader.loadModules(new ModuleLoader.ReferencesFinder(references), references.keySet(), loader);
 	}
 	
 	/**
 	 * Defines a dummy module with the given name at the given path in the given
 	 * class loader.
 	 * This action requires creation of a temporary file that can be then loaded
-	 * and discarded afterwards.
+	 * and discarded afterwards, see {@linkplain #defineDummyModule(String,
+	 * ClassLoader)} for a variant without any file.
 	 * If a module with the given name is already loaded, then nothing is done.
 	 * @param path the path where to put the dummy module file
 	 * @param name the dummy module's name
@@ -186,6 +206,26 @@ public final class ModuleUtils {
 		ModuleLoader.addResolvedModule(config, name);
 	}
 	
+	/**
+	 * Defines modules at the given paths and with the given names in the given
+	 * class loader. All the modules are resolved together and defined in
+	 * a single module layer, see {@linkplain ModuleLoader#loadModules(Map,
+	 * ClassLoader) ModuleLoader.loadModules}.
+	 * Modules that are already loaded are skipped.
+	 * @param modules the modules' paths mapped by the modules' names
+	 * @param loader the class loader
+	 */
+	public static final void defineModules(Map<String, Path> modules, ClassLoader loader) {
+		Map<String, Path> missing = new LinkedHashMap<>(modules);
+		missing.keySet().removeIf(ModuleUtils::isModuleLoaded);
+		
+		if(missing.isEmpty()) {
+			return;
+		}
+		
+		ModuleLoader.loadModules(missing, loader);
+	}
+	
 	/**
 	 * Gets the automatic module name of a file at the given path.
 	 * @param path the module's path
@@ -197,4 +237,38 @@ public final class ModuleUtils {
 					.map(ModuleDescriptor::name)
 					.orElseGet(() -> path.getFileName().toString().replaceAll("[^A-Za-z0-9\\.]", "."));
 	}
+	
+	/**
+	 * Reference of a dummy module, that has a generated descriptor
+	 * and no content.
+	 */
+	private static final class DummyModuleReference extends ModuleReference {
+		
+		DummyModuleReference(String name) {
+			super(ModuleDescriptor.newModule(name).build(), null);
+		}
+		
+		@Override
+		public ModuleReader open() {
+			return new EmptyModuleReader();
+		}
+	}
+	
+	private static final class EmptyModuleReader implements ModuleReader {
+		
+		@Override
+		public Optional<URI> find(String name) {
+			return Optional.empty();
+		}
+		
+		@Override
+		public Stream<String> list() {
+			return Stream.empty();
+		}
+		
+		@Override
+		public void close() {
+			// Nothing to close
+		}
+	}
 }
\ No newline at end of file
@@ -0,0 +1,122 @@
+package sune.util.load;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * <p>
+ * Contents resolver that reads files in the background as soon as they are
+ * {@linkplain #prefetch(String) prefetched}. When a prefetched file is requested,
+ * its already read content is used, or the reading is awaited, if still in
+ * progress. Files that were not prefetched are read directly.
+ * </p>
+ * 
+ * <p>
+ * This allows the I/O, e.g. reading and inflating of JAR entries, to overlap
+ * with the analysis and definition of classes done by {@linkplain RootAnalyzingClassLoader},
+ * which prefetches dependencies of a class as soon as they are found.
+ * </p>
+ * 
+ * @author Sune
+ * @see ContentsResolver#prefetching(ContentsResolver, Executor)
+ */
+public final class PrefetchingContentsResolver implements ContentsResolver, AutoCloseable {
+	
+	private final ContentsResolver resolver;
+	private final Executor executor;
+	private final Map<String, CompletableFuture<ByteBuffer>> pending = new ConcurrentHashMap<>();
+	
+	/**
+	 * Creates a new instance that reads contents using the given {@code resolver}
+	 * on the given {@code executor}.
+	 * @param resolver the resolver that actually reads the contents
+	 * @param executor the executor where to read the prefetched files
+	 */
+	public PrefetchingContentsResolver(ContentsResolver resolver, Executor executor) {
+		this.resolver = Objects.requireNonNull(resolver);
+		this.executor = Objects.requireNonNull(executor);
+	}
+	
+	private final ByteBuffer read(String path) {
+		try {
+			return resolver.buffer(path);
+		} catch(Exception ex) {
+			throw new CompletionException(ex);
+		}
+	}
+	
+	@Override
+	public void prefetch(String path) {
+		pending.computeIfAbsent(path, (p) -> CompletableFuture.supplyAsync(() -> read(p), executor));
+	}
+	
+	@Override
+	public void discard(String path) {
+		CompletableFuture<ByteBuffer> future;
+		
+		if((future = pending.remove(path)) != null) {
+			future.thenAccept(resolver::release);
+		}
+	}
+	
+	@Override
+	public byte[] bytes(String path) throws Exception {
+		ByteBuffer buffer = buffer(path);
+		
+		try {
+			byte[] bytes = new byte[buffer.remaining()];
+			buffer.duplicate().get(bytes);
+			return bytes;
+		} finally {
+			release(buffer);
+		}
+	}
+	
+	@Override
+	public ByteBuffer buffer(String path) throws Exception {
+		CompletableFuture<ByteBuffer> future;
+		
+		if((future = pending.remove(path)) == null) {
+			return resolver.buffer(path); // Not prefetched, read directly
+		}
+		
+		try {
+			return future.join();
+		} catch(CompletionException ex) {
+			Throwable cause = ex.getCause();
+			
+			if(cause instanceof Exception) throw (Exception) cause;
+			if(cause instanceof Error)     throw (Error)     cause;
+			throw ex;
+		}
+	}
+	
+	@Override
+	public void release(ByteBuffer buffer) {
+		resolver.release(buffer);
+	}
+	
+	/**
+	 * Gets the number of prefetched files that were not requested yet.
+	 * @return The number of pending files.
+	 */
+	public int pendingCount() {
+		return pending.size();
+	}
+	
+	/**
+	 * Discards all prefetched files that were not requested, releasing
+	 * their contents.
+	 */
+	@Override
+	public void close() {
+		for(String path : pending.keySet()) {
+			discard(path);
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,42 @@
+package sune.util.load;
+
+import java.util.Objects;
+
+/**
+ * Root analyzing class loader that reads all contents of classes using
+ * a given {@linkplain ContentsResolver}.
+ * @author Sune
+ * @see RootAnalyzingClassLoader
+ */
+public class ResolvingRootAnalyzingClassLoader extends RootAnalyzingClassLoader {
+	
+	/**
+	 * Creates a new instance that loads classes into the given {@code loader}
+	 * and reads their contents using the given {@code resolver}.
+	 * @param loader the loader where to load the classes to
+	 * @param resolver the resolver of the contents of the classes
+	 */
+	public ResolvingRootAnalyzingClassLoader(ClassLoader loader, ContentsResolver resolver) {
+		this(loader, resolver, null, new LoadSession());
+	}
+	
+	/**
+	 * Creates a new instance that loads classes into the given {@code loader},
+	 * reads their contents using the given {@code resolver}, obtains dependencies
+	 * of classes from the given {@code index}, if present, and shares the given
+	 * {@code session} across all its calls of {@linkplain #loadClass(String)}.
+	 * @param loader the loader where to load the classes to
+	 * @param resolver the resolver of the contents of the classes
+	 * @param index the dependency index, may be {@code null}
+	 * @param session the load session
+	 */
+	public ResolvingRootAnalyzingClassLoader(ClassLoader loader, ContentsResolver resolver, DependencyIndex index,
+			LoadSession session) {
+		super(loader, Objects.requireNonNull(resolver), index, session);
+	}
+	
+	@Override
+	protected byte[] bytes(String path) throws Exception {
+		return resolver.bytes(path);
+	}
+}
\ No newline at end of file
@@ -0,0 +1,39 @@
+package sune.util.load;
+
+import java.util.Objects;
+
+/**
+ * Root class loader that reads all contents of classes using a given
+ * {@linkplain ContentsResolver}.
+ * @author Sune
+ * @see RootClassLoader
+ */
+public class ResolvingRootClassLoader extends RootClassLoader {
+	
+	/**
+	 * Creates a new instance that loads classes into the given {@code loader}
+	 * and reads their contents using the given {@code resolver}.
+	 * @param loader the loader where to load the classes to
+	 * @param resolver the resolver of the contents of the classes
+	 */
+	public ResolvingRootClassLoader(ClassLoader loader, ContentsResolver resolver) {
+		this(loader, resolver, new LoadSession());
+	}
+	
+	/**
+	 * Creates a new instance that loads classes into the given {@code loader},
+	 * reads their contents using the given {@code resolver} and shares the given
+	 * {@code session} across all its calls of {@linkplain #loadClass(String)}.
+	 * @param loader the loader where to load the classes to
+	 * @param resolver the resolver of the contents of the classes
+	 * @param session the load session
+	 */
+	public ResolvingRootClassLoader(ClassLoader loader, ContentsResolver resolver, LoadSession session) {
+		super(loader, Objects.requireNonNull(resolver), session);
+	}
+	
+	@Override
+	protected byte[] bytes(String path) throws Exception {
+		return resolver.bytes(path);
+	}
+}
\ No newline at end of file
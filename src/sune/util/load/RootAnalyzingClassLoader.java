@@ -2,14 +2,11 @@ package sune.util.load;
 
 import java.lang.reflect.InvocationTargetException;
 import java.nio.ByteBuffer;
-import java.util.ArrayDeque;
-import java.util.Deque;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map.Entry;
+import java.util.Objects;
 import java.util.Set;
-import java.util.function.Predicate;
-import java.util.stream.Collectors;
 
 /**
  * Special class loader that loads a specific given class and all
@@ -20,21 +17,66 @@ import java.util.stream.Collectors;
  */
 public abstract class RootAnalyzingClassLoader extends RootClassLoader {
 	
+	private final DependencyIndex index;
+	private volatile DependencyMode mode = DependencyMode.ALL;
+	
 	public RootAnalyzingClassLoader(ClassLoader loader) {
-		super(loader);
+		this(loader, (DependencyIndex) null);
 	}
 	
-	protected static final boolean classLoaded(ClassLoader loader, String name) {
-		try {
-			Class.forName(name, false, loader);
-			return true;
-		} catch(ClassNotFoundException ex) {
-			return false;
-		}
+	/**
+	 * Creates a new instance that obtains dependencies of classes from
+	 * the given {@code index}, if present, instead of analyzing them.
+	 * @param loader the loader where to load the classes to
+	 * @param index the dependency index, may be {@code null}
+	 */
+	public RootAnalyzingClassLoader(ClassLoader loader, DependencyIndex index) {
+		this(loader, index, new LoadSession());
 	}
 	
-	protected static final boolean isBuiltinDependency(String name) {
-		return name.startsWith("java.");
+	/**
+	 * Creates a new instance that obtains dependencies of classes from
+	 * the given {@code index}, if present, and shares the given {@code session}
+	 * across all its calls of {@linkplain #loadClass(String)}.
+	 * @param loader the loader where to load the classes to
+	 * @param index the dependency index, may be {@code null}
+	 * @param session the load session
+	 */
+	public RootAnalyzingClassLoader(ClassLoader loader, DependencyIndex index, LoadSession session) {
+		this(loader, null, index, session);
+	}
+	
+	/**
+	 * Creates a new instance that reads contents of classes using the given
+	 * {@code resolver}. Dependencies found by the analysis are prefetched
+	 * using the resolver, see {@linkplain ContentsResolver#prefetch(String)}.
+	 * For an instance that reads all its contents using the resolver, see
+	 * {@linkplain ResolvingRootAnalyzingClassLoader}.
+	 * @param loader the loader where to load the classes to
+	 * @param resolver the resolver of the contents of the classes
+	 */
+	public RootAnalyzingClassLoader(ClassLoader loader, ContentsResolver resolver) {
+		this(loader, Objects.requireNonNull(resolver), null, new LoadSession());
+	}
+	
+	/**
+	 * Creates a new instance that reads contents of classes using the given
+	 * {@code resolver}, obtains dependencies of classes from the given
+	 * {@code index}, if present, and shares the given {@code session} across
+	 * all its calls of {@linkplain #loadClass(String)}.
+	 * @param loader the loader where to load the classes to
+	 * @param resolver the resolver of the contents of the classes, may be {@code null}
+	 * @param index the dependency index, may be {@code null}
+	 * @param session the load session
+	 */
+	public RootAnalyzingClassLoader(ClassLoader loader, ContentsResolver resolver, DependencyIndex index,
+			LoadSession session) {
+		super(loader, resolver, session);
+		this.index = index;
+	}
+	
+	protected static final boolean classLoaded(ClassLoader loader, String name) {
+		return ClassPresenceCache.isPresent(loader, name);
 	}
 	
 	protected static final int dependencyComparator(String a, String b) {
@@ -43,70 +85,218 @@ public abstract class RootAnalyzingClassLoader extends RootClassLoader {
 		return al < bl ? -1 : (al > bl ? 1 : a.compareTo(b));
 	}
 	
+	private static final boolean isBuiltinDependency(DependencyName name) {
+		return name.startsWith("java.");
+	}
+	
+	static final List<String> analyze(ByteBuffer buffer) {
+		Set<String> names = new HashSet<>();
+		
+		ClassDependencyAnalyzer.dependencies(buffer, (name) -> {
+			if(!isBuiltinDependency(name)) {
+				names.add(name.toString());
+			}
+		});
+		
+		List<String> dependencies = new ArrayList<>(names);
+		dependencies.sort(RootAnalyzingClassLoader::dependencyComparator);
+		return dependencies;
+	}
+	
+	/**
+	 * Sets the mode of obtaining dependencies of classes, i.e. which classes
+	 * are defined before a class. By default, the mode is {@linkplain
+	 * DependencyMode#ALL ALL}.
+	 * @param mode the dependency mode
+	 */
+	public void setDependencyMode(DependencyMode mode) {
+		this.mode = Objects.requireNonNull(mode);
+	}
+	
+	/**
+	 * Gets the mode of obtaining dependencies of classes, see
+	 * {@linkplain #setDependencyMode(DependencyMode)}.
+	 * @return The dependency mode.
+	 */
+	public DependencyMode dependencyMode() {
+		return mode;
+	}
+	
 	protected final List<String> dependencies(byte[] bytes) {
-		return ClassDependencyAnalyzer.dependencies(ByteBuffer.wrap(bytes)).stream()
-					.filter(Predicate.not(RootAnalyzingClassLoader::isBuiltinDependency))
-					.sorted(RootAnalyzingClassLoader::dependencyComparator)
-					.collect(Collectors.toList());
+		return analyze(ByteBuffer.wrap(bytes));
+	}
+	
+	/**
+	 * Gets the dependencies of a class located at the given {@code path}.
+	 * If the dependency index is present and contains the class, the dependencies
+	 * are read from it, otherwise the given {@code bytes} are analyzed.
+	 * @param path the path of the class
+	 * @param bytes the bytes of the class
+	 * @return The filtered and sorted dependencies of the class.
+	 */
+	protected final List<String> dependencies(String path, byte[] bytes) {
+		return dependencies(path, ByteBuffer.wrap(bytes));
+	}
+	
+	/**
+	 * Gets the dependencies of a class located at the given {@code path}.
+	 * If the dependency index is present and contains the class, the dependencies
+	 * are read from it, otherwise the given {@code buffer} is analyzed.
+	 * In the {@linkplain DependencyMode#SUPERTYPES SUPERTYPES} mode, only
+	 * the header of the class is read and the index is not used.
+	 * @param path the path of the class
+	 * @param buffer the buffer containing the bytes of the class
+	 * @return The filtered and sorted dependencies of the class.
+	 */
+	protected final List<String> dependencies(String path, ByteBuffer buffer) {
+		boolean enabled = LoadListeners.enabled();
+		long start = enabled ? System.nanoTime() : 0L;
+		boolean all = mode == DependencyMode.ALL;
+		List<String> dependencies = all && index != null ? index.dependencies(path) : null;
+		boolean indexed = dependencies != null;
+		
+		if(!indexed) {
+			dependencies = all ? analyze(buffer) : supertypes(buffer);
+		}
+		
+		if(enabled) {
+			LoadListeners.classAnalyzed(path, dependencies.size(), System.nanoTime() - start, indexed);
+		}
+		
+		return dependencies;
 	}
 	
 	@Override
-	public Class<?> loadClass(String path) throws Exception {
+	public Class<?> loadClass(String path, LoadSession session) throws Exception {
 		Class<?> clazz = null;
 		
 		if(!isClassFile(path)) {
 			return clazz; // Do not load non-class files
 		}
 		
-		Set<String> loaded = new HashSet<>();
-		Set<String> queued = new HashSet<>();
-		Deque<Entry<String, String>> stack = new ArrayDeque<>();
-		pushToStack(stack, queued, path);
+		if((clazz = loadedClass(session, pathToClassName(path))) != null) {
+			return clazz; // Already loaded in this session
+		}
+		
+		WorkStack stack = new WorkStack();
+		stack.push(path, pathToClassName(path));
 		
-		Entry<String, String> entry;
+		WorkStack.Item item;
 		String name;
-		byte[] bytes;
-		do {
-			// Dependencies will move the original class down the stack
+		ByteBuffer buffer = null;
+		try {
 			do {
-				entry = stack.peek();
-				path  = entry.getKey();
-				name  = entry.getValue();
-				bytes = bytes(path);
-				
-				// Push all class dependecies to the stack
-				for(String depName : dependencies(bytes)) {
-					if(name.equals(depName) || loaded.contains(depName)
-							|| (classLoaded(loader, depName) && loaded.add(depName))) {
-						continue; // Skip already loaded classes
+				// Dependencies will move the original class down the stack
+				do {
+					if(buffer != null) {
+						// The previous class was moved down the stack, its bytes
+						// will be needed again once it is on the top.
+						keep(path, buffer);
+						buffer = null;
 					}
 					
-					pushToStack(stack, queued, classNameToPath(depName));
+					item   = stack.peek();
+					path   = item.path;
+					name   = item.name;
+					buffer = acquire(path);
+					
+					if(!session.markAnalyzed(name)) {
+						break; // Dependencies already pushed to the stack
+					}
+					
+					// Push all class dependecies to the stack
+					for(String depName : dependencies(path, buffer)) {
+						if(name.equals(depName) || session.isLoaded(depName)
+								|| (ClassPresenceCache.isPresent(loader, depName, session.isLocal(depName))
+										&& session.markLoaded(depName))) {
+							continue; // Skip already loaded classes
+						}
+						
+						String depPath = classNameToPath(depName);
+						if(stack.push(depPath, depName)) {
+							// Start reading the dependency while the rest is analyzed
+							prefetch(depPath);
+						}
+					}
+				} while(stack.peek() != item);
+				
+				boolean defined = false;
+				try {
+					// Also remembers that we already loaded this class
+					clazz = defineClass(loader, session, name, buffer);
+					defined = true;
+					// Class was successfully defined, remove it from the stack
+					stack.remove();
+				} catch(InvocationTargetException
+							| IllegalArgumentException
+							| IllegalAccessException ex) {
+					if(ex.getCause() instanceof NoClassDefFoundError) {
+						// The class needs another class to be defined
+						String missing = ex.getCause().getMessage();
+						String classPath = classNameToPath(missing);
+						
+						if(LoadListeners.enabled()) {
+							LoadListeners.classRetried(name, missing);
+						}
+						
+						stack.pushToTop(classPath, pathToClassName(classPath));
+					} else {
+						throw ex;
+					}
+				} finally {
+					// Bytes of a defined class are not needed anymore
+					if(defined) release(buffer);
+					else        keep(path, buffer);
+					buffer = null;
 				}
-			} while(stack.peek() != entry);
+			}
+			// Repeat till there are some class need defining
+			while(!stack.isEmpty());
+		} catch(Exception ex) {
+			if(buffer != null) {
+				release(buffer);
+			}
 			
-			try {
-				clazz = defineClass(loader, name, bytes);
-				// Remember that we already loaded this class
-				loaded.add(clazz.getName());
-				// Class was successfully defined, remove it from the stack
-				stack.remove();
-			} catch(InvocationTargetException
-						| IllegalArgumentException
-						| IllegalAccessException ex) {
-				if(ex.getCause() instanceof NoClassDefFoundError) {
-					// The class needs another class to be defined
-					String classPath = classNameToPath(ex.getCause().getMessage());
-					pushToStackTop(stack, queued, classPath);
-				} else {
-					throw ex;
-				}
+			// Classes that were not defined must be analyzed again next time
+			// and their prefetched contents will not be requested now.
+			for(WorkStack.Item remaining = stack.peek(); remaining != null; remaining = remaining.below) {
+				session.unmarkAnalyzed(remaining.name);
+				discard(remaining.path);
 			}
+			
+			throw ex;
+		} finally {
+			// Release the bytes of classes that were not defined, if any
+			clearDefaultCache();
 		}
-		// Repeat till there are some class need defining
-		while(!stack.isEmpty());
 		
 		// Return the requested class
 		return clazz;
 	}
+	
+	/**
+	 * Mode of obtaining dependencies of classes, i.e. which classes are defined
+	 * before a class by {@linkplain RootAnalyzingClassLoader}.
+	 * @author Sune
+	 * @see RootAnalyzingClassLoader#setDependencyMode(DependencyMode)
+	 */
+	public static enum DependencyMode {
+		
+		/**
+		 * All classes referenced in the constant pool or in the descriptors
+		 * of members of a class are defined before the class, so that all of
+		 * them are available without the help of the target class loader.
+		 */
+		ALL,
+		/**
+		 * Only the superclass and the interfaces of a class, read from its header,
+		 * are defined before the class, since only these are required to define it.
+		 * Other referenced classes are left to the normal lazy resolution, i.e.
+		 * they must be resolvable by the target class loader itself when they are
+		 * used for the first time, e.g. classes of a module loaded by
+		 * {@linkplain ModuleLazyLoader}. This defines considerably fewer classes
+		 * when loading a single class.
+		 */
+		SUPERTYPES;
+	}
 }
\ No newline at end of file
@@ -1,14 +1,10 @@
 package sune.util.load;
 
 import java.lang.reflect.InvocationTargetException;
-import java.util.ArrayDeque;
-import java.util.Deque;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.Map;
-import java.util.Map.Entry;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
-import java.util.Set;
 
 /**
  * Special class loader that loads a specific given class and all
@@ -17,10 +13,56 @@ import java.util.Set;
  */
 public abstract class RootClassLoader {
 	
+	static final long DEFAULT_CACHE_SIZE = 8L * 1024L * 1024L;
+	
 	protected final ClassLoader loader;
+	protected final LoadSession session;
+	protected final ContentsResolver resolver;
+	private volatile ClassBytesCache cache = new ClassBytesCache(DEFAULT_CACHE_SIZE);
+	// Whether the cache is the default one, that is cleared by this instance itself
+	private volatile boolean defaultCache = true;
 	
 	public RootClassLoader(ClassLoader loader) {
+		this(loader, new LoadSession());
+	}
+	
+	/**
+	 * Creates a new instance that loads classes into the given {@code loader}
+	 * and shares the given {@code session} across all its calls of
+	 * {@linkplain #loadClass(String)}.
+	 * @param loader the loader where to load the classes to
+	 * @param session the load session
+	 */
+	public RootClassLoader(ClassLoader loader, LoadSession session) {
+		this(loader, null, session);
+	}
+	
+	/**
+	 * Creates a new instance that loads classes into the given {@code loader}
+	 * and reads their buffers using the given {@code resolver}. For an instance
+	 * that reads all its contents using the resolver, see {@linkplain
+	 * ResolvingRootClassLoader}.
+	 * @param loader the loader where to load the classes to
+	 * @param resolver the resolver of the contents of the classes
+	 */
+	public RootClassLoader(ClassLoader loader, ContentsResolver resolver) {
+		this(loader, Objects.requireNonNull(resolver), new LoadSession());
+	}
+	
+	/**
+	 * Creates a new instance that loads classes into the given {@code loader},
+	 * reads their contents using the given {@code resolver} and shares the given
+	 * {@code session} across all its calls of {@linkplain #loadClass(String)}.
+	 * For an instance that reads all its contents using the resolver, see
+	 * {@linkplain ResolvingRootClassLoader}.
+	 * @param loader the loader where to load the classes to
+	 * @param resolver the resolver of the contents of the classes, may be {@code null}
+	 * @param session the load session
+	 */
+	public RootClassLoader(ClassLoader loader, ContentsResolver resolver, LoadSession session) {
 		this.loader = Objects.requireNonNull(loader);
+		this.session = Objects.requireNonNull(session);
+		this.resolver = resolver;
 	}
 	
 	/**
@@ -59,19 +101,130 @@ public abstract class RootClassLoader {
 		return path.endsWith(".class") && !path.endsWith("module-info.class");
 	}
 	
+	protected static final boolean isBuiltinDependency(String name) {
+		return name.startsWith("java.");
+	}
+	
+	/**
+	 * Gets the direct supertypes of the given class represented as a byte buffer,
+	 * see {@linkplain ClassDependencyAnalyzer#supertypes(ByteBuffer)}, except
+	 * the built-in ones, that are always present.
+	 */
+	static final List<String> supertypes(ByteBuffer buffer) {
+		List<String> supertypes = ClassDependencyAnalyzer.supertypes(buffer);
+		supertypes.removeIf(RootClassLoader::isBuiltinDependency);
+		return supertypes;
+	}
+	
 	protected static final Class<?> defineClass(ClassLoader loader, String name, byte[] bytes)
 			throws InvocationTargetException,
 				   IllegalAccessException,
 				   IllegalArgumentException {
+		return defineClass(loader, name, ByteBuffer.wrap(bytes));
+	}
+	
+	/**
+	 * Defines a class with the given {@code name} from the given {@code buffer}
+	 * in the given {@code loader}. The class data are read from the current
+	 * position of the buffer, the position itself is not changed. If the class
+	 * is already present in the loader, i.e. it was already loaded by the loader
+	 * or is visible through its parents, it is just returned.
+	 * @param loader the class loader where to define the class
+	 * @param name the class name
+	 * @param buffer the buffer containing the class data
+	 * @return The class object.
+	 */
+	protected static final Class<?> defineClass(ClassLoader loader, String name, ByteBuffer buffer)
+			throws InvocationTargetException,
+				   IllegalAccessException,
+				   IllegalArgumentException {
+		return defineClass0(loader, null, name, buffer);
+	}
+	
+	private static final Class<?> defineClass0(ClassLoader loader, LoadSession session, String name,
+			ByteBuffer buffer)
+			throws InvocationTargetException,
+				   IllegalAccessException,
+				   IllegalArgumentException {
+		Class<?> clazz;
+		
+		// If the class is already present, either loaded by the loader itself
+		// or visible through its parents, just return it, so that the loader
+		// does not get its own copy of the class.
+		if(ClassPresenceCache.isPresent(loader, name, session != null && session.isLocal(name))) {
+			try {
+				return Class.forName(name, false, loader);
+			} catch(ClassNotFoundException ex) {
+				// Not present anymore, will define
+			}
+		}
+		
+		boolean enabled = LoadListeners.enabled();
+		long start = enabled ? System.nanoTime() : 0L;
+		
 		try {
-			// If the class was already loaded, just return it
-			return Class.forName(name, false, loader);
-		} catch(ClassNotFoundException ex) {
-			// Not loaded, will load
+			// Define the requested class using the given bytes
+			if(buffer.hasArray()) {
+				clazz = UnsafeLegacy.defineClass(name, buffer.array(), buffer.arrayOffset() + buffer.position(),
+				                                 buffer.remaining(), loader, null);
+			} else {
+				clazz = UnsafeLegacy.defineClass(name, buffer.duplicate(), loader, null);
+			}
+		} catch(InvocationTargetException ex) {
+			Throwable cause = ex.getCause();
+			
+			// The class may have been defined in the meantime by someone else,
+			// or it is visible through a parent class loader.
+			if(!(cause instanceof LinkageError) || cause instanceof NoClassDefFoundError) {
+				throw ex;
+			}
+			
+			try {
+				clazz = Class.forName(name, false, loader);
+			} catch(ClassNotFoundException ignored) {
+				throw ex;
+			}
+			
+			ClassPresenceCache.markDefined(loader, name);
+			return clazz; // Not defined by us
+		}
+		
+		ClassPresenceCache.markDefined(loader, name);
+		
+		if(session != null) {
+			session.markDefined();
 		}
 		
-		// Define the requested class using the given bytes
-		return UnsafeLegacy.defineClass(name, bytes, 0, bytes.length, loader, null);
+		if(enabled) {
+			LoadListeners.classDefined(name, System.nanoTime() - start);
+		}
+		
+		return clazz;
+	}
+	
+	/**
+	 * Defines a class with the given {@code name} from the given {@code buffer}
+	 * in the given {@code loader} within the given {@code session} and marks it
+	 * as loaded in the session. The definition is guarded by a per-name lock
+	 * of the session, therefore when the class is requested by multiple threads
+	 * at once, it is defined only once and the other threads get the defined class.
+	 * @param loader the class loader where to define the class
+	 * @param session the load session
+	 * @param name the class name
+	 * @param buffer the buffer containing the class data
+	 * @return The class object.
+	 */
+	protected static final Class<?> defineClass(ClassLoader loader, LoadSession session, String name,
+			ByteBuffer buffer)
+			throws InvocationTargetException,
+				   IllegalAccessException,
+				   IllegalArgumentException {
+		synchronized(session.lock(name)) {
+			// Returns the class directly, if it was defined by another thread
+			Class<?> clazz = defineClass0(loader, session, name, buffer);
+			session.markLoaded(name);
+			return clazz;
+		}
 	}
 	
 	/**
@@ -82,35 +235,200 @@ public abstract class RootClassLoader {
 	 */
 	protected abstract byte[] bytes(String path) throws Exception;
 	
-	protected void pushToStack(Deque<Entry<String, String>> stack, Set<String> queued, String path) {
-		if(!queued.contains(path)) {
-			stack.push(Map.entry(path, pathToClassName(path)));
-			queued.add(path);
+	/**
+	 * Gets a buffer with the content of a file located at the given
+	 * {@code path} in the current {@code module}. The buffer may be a direct
+	 * or a mapped buffer, it is passed to {@linkplain #release(ByteBuffer)}
+	 * once the class is defined. By default, the buffer is obtained using
+	 * the resolver, if present, otherwise it wraps the result of
+	 * {@linkplain #bytes(String)}.
+	 * @param path the path to the resource
+	 * @return The content of the resource as a buffer.
+	 */
+	protected ByteBuffer buffer(String path) throws Exception {
+		return resolver != null ? resolver.buffer(path) : ByteBuffer.wrap(bytes(path));
+	}
+	
+	/**
+	 * Releases the given {@code buffer} obtained by {@linkplain #buffer(String)}.
+	 * This method is called once the buffer is no longer used. By default,
+	 * the buffer is released by the resolver, if present.
+	 * @param buffer the buffer
+	 */
+	protected void release(ByteBuffer buffer) {
+		if(resolver != null) {
+			resolver.release(buffer);
+		}
+	}
+	
+	/**
+	 * Hints that a file located at the given {@code path} will be needed soon.
+	 * This method is called for each newly found dependency, before it is
+	 * actually requested. By default, the hint is passed to the resolver,
+	 * if present, see {@linkplain ContentsResolver#prefetch(String)}.
+	 * @param path the path to the resource
+	 */
+	protected void prefetch(String path) {
+		if(resolver != null) {
+			resolver.prefetch(path);
+		}
+	}
+	
+	/**
+	 * Hints that a file located at the given {@code path}, that was passed to
+	 * {@linkplain #prefetch(String)}, will not be requested. By default, the hint
+	 * is passed to the resolver, if present, see {@linkplain ContentsResolver#discard(String)}.
+	 * @param path the path to the resource
+	 */
+	protected void discard(String path) {
+		if(resolver != null) {
+			resolver.discard(path);
+		}
+	}
+	
+	/**
+	 * Gets a buffer with the content of a file located at the given {@code path},
+	 * either from the bytes cache, if present there, or using {@linkplain #buffer(String)}.
+	 * The buffer must be either released or passed to {@linkplain #keep(String, ByteBuffer)}.
+	 * @param path the path to the resource
+	 * @return The content of the resource as a buffer.
+	 */
+	protected final ByteBuffer acquire(String path) throws Exception {
+		ClassBytesCache cache = this.cache;
+		ByteBuffer buffer;
+		
+		if(!LoadListeners.enabled()) {
+			if(cache != null && (buffer = cache.take(path)) != null) {
+				return buffer;
+			}
+			
+			return buffer(path);
 		}
+		
+		long start = System.nanoTime();
+		buffer = cache != null ? cache.take(path) : null;
+		boolean cached = buffer != null;
+		
+		if(!cached) {
+			buffer = buffer(path);
+		}
+		
+		LoadListeners.classRead(path, buffer.remaining(), System.nanoTime() - start, cached);
+		return buffer;
 	}
 	
-	protected void pushToStackTop(Deque<Entry<String, String>> stack, Set<String> queued, String path)
-			throws Exception {
-		if(!queued.contains(path)) {
-			stack.push(Map.entry(path, pathToClassName(path)));
-			queued.add(path);
+	/**
+	 * Keeps the given {@code buffer} with the content of a file located at
+	 * the given {@code path} in the bytes cache, since it will be needed again.
+	 * If there is no cache, the buffer is released.
+	 * @param path the path to the resource
+	 * @param buffer the buffer
+	 */
+	protected final void keep(String path, ByteBuffer buffer) {
+		ClassBytesCache cache = this.cache;
+		
+		if(cache != null) {
+			cache.put(path, buffer, this::release);
 		} else {
-			Entry<String, String> entry = null;
+			release(buffer);
+		}
+	}
+	
+	/**
+	 * Releases the contents left in the default bytes cache, e.g. when a class
+	 * could not be loaded. This is called once a call of {@linkplain
+	 * #loadClass(String, LoadSession)} finishes, so that no buffer is held after
+	 * it. A cache set using {@linkplain #setBytesCache(ClassBytesCache)} is not
+	 * cleared, since it is cleared by its owner.
+	 */
+	final void clearDefaultCache() {
+		ClassBytesCache cache;
+		if(defaultCache && (cache = this.cache) != null) {
+			cache.clear();
+		}
+	}
+	
+	/**
+	 * Sets the cache of contents of classes that are read more than once,
+	 * e.g. when a class is pushed down the stack by its dependencies.
+	 * By default, each instance has its own cache of 8 MiB that is cleared
+	 * once each call of {@linkplain #loadClass(String, LoadSession)} finishes.
+	 * A cache set using this method is kept across the calls, therefore
+	 * the caller must clear it, once it is no longer needed, e.g. before
+	 * the source of the contents is closed.
+	 * @param cache the cache, or {@code null} to disable caching
+	 */
+	public void setBytesCache(ClassBytesCache cache) {
+		ClassBytesCache previous = this.cache;
+		this.cache = cache;
+		defaultCache = false;
+		
+		if(previous != null && previous != cache) {
+			previous.clear();
+		}
+	}
+	
+	/**
+	 * Gets the cache of contents of classes, see {@linkplain #setBytesCache(ClassBytesCache)}.
+	 * @return The cache, or {@code null}, if caching is disabled.
+	 */
+	public ClassBytesCache bytesCache() {
+		return cache;
+	}
+	
+	/**
+	 * Checks whether a class with the given {@code name} was already loaded
+	 * in the given {@code session} and if so, returns it.
+	 * @param session the load session
+	 * @param name the class name
+	 * @return The class object, if the class was already loaded, otherwise
+	 * {@code null}.
+	 */
+	protected final Class<?> loadedClass(LoadSession session, String name) {
+		if(!session.isLoaded(name)) {
+			return null;
+		}
+		
+		try {
+			return Class.forName(name, false, loader);
+		} catch(ClassNotFoundException ex) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Pushes the supertypes of a class given by the {@code buffer} that are
+	 * not present in the current loader to the top of the given {@code stack},
+	 * so that they are defined before the class. Only the header of the class
+	 * is read.
+	 * @return {@code true}, if some supertype was pushed, otherwise {@code false}.
+	 */
+	private final boolean pushMissingSupertypes(WorkStack stack, LoadSession session, ByteBuffer buffer) {
+		List<String> supertypes = supertypes(buffer);
+		boolean pushed = false;
+		
+		// Pushed in reverse order, so that the superclass is defined first
+		for(int i = supertypes.size() - 1; i >= 0; --i) {
+			String supertype = supertypes.get(i);
 			
-			for(Iterator<Entry<String, String>> it = stack.iterator(); it.hasNext();) {
-				Entry<String, String> current = it.next();
-				
-				if(current.getKey().equals(path)) {
-					it.remove();
-					entry = current;
-					break;
-				}
+			if(session.isLoaded(supertype) || ClassPresenceCache.isPresent(loader, supertype,
+					session.isLocal(supertype))) {
+				continue;
 			}
 			
-			if(entry != null) {
-				stack.push(entry);
-			}
+			stack.pushToTop(classNameToPath(supertype), supertype);
+			pushed = true;
 		}
+		
+		return pushed;
+	}
+	
+	/**
+	 * Gets the load session of this root class loader.
+	 * @return The load session.
+	 */
+	public LoadSession session() {
+		return session;
 	}
 	
 	/**
@@ -123,46 +441,97 @@ public abstract class RootClassLoader {
 	 * {@code path}.
 	 */
 	public Class<?> loadClass(String path) throws Exception {
+		return loadClass(path, session);
+	}
+	
+	/**
+	 * Loads all classes given by the {@code paths} in a single load session,
+	 * i.e. classes loaded as dependencies of one class are not checked again
+	 * for the other classes.
+	 * @param paths the paths of the classes
+	 * @return The class objects of class files located at the given
+	 * {@code paths}. Paths of non-class files are skipped.
+	 */
+	public List<Class<?>> loadClasses(Iterable<String> paths) throws Exception {
+		List<Class<?>> classes = new ArrayList<>();
+		
+		for(String path : paths) {
+			Class<?> clazz = loadClass(path, session);
+			
+			if(clazz != null) {
+				classes.add(clazz);
+			}
+		}
+		
+		return classes;
+	}
+	
+	/**
+	 * Loads a class given by the {@code path} within the given {@code session}.
+	 * This class is loaded into the current loader. All the classes that are
+	 * required by this class are loaded beforehand. These classes must be already
+	 * loaded or must be resolvable using the given resolver. The required classes,
+	 * i.e. the superclass and the interfaces, are obtained from the header of
+	 * the class before it is defined.
+	 * @param path the path of the class
+	 * @param session the load session
+	 * @return The class object of a class file located at the given
+	 * {@code path}.
+	 */
+	public Class<?> loadClass(String path, LoadSession session) throws Exception {
 		Class<?> clazz = null;
 		
 		if(!isClassFile(path)) {
 			return clazz; // Do not load non-class files
 		}
 		
-		Set<String> loaded = new HashSet<>();
-		Set<String> queued = new HashSet<>();
-		Deque<Entry<String, String>> stack = new ArrayDeque<>();
-		pushToStack(stack, queued, path);
+		if((clazz = loadedClass(session, pathToClassName(path))) != null) {
+			return clazz; // Already loaded in this session
+		}
+		
+		WorkStack stack = new WorkStack();
+		stack.push(path, pathToClassName(path));
 		
-		Entry<String, String> entry;
+		WorkStack.Item item;
 		String name;
-		byte[] bytes;
-		do {
-			entry = stack.peek();
-			path  = entry.getKey();
-			name  = entry.getValue();
-			bytes = bytes(path);
-			
-			try {
-				clazz = defineClass(loader, name, bytes);
-				// Remember that we already loaded this class
-				loaded.add(clazz.getName());
-				// Class was successfully defined, remove it from the stack
-				stack.remove();
-			} catch(InvocationTargetException
-						| IllegalArgumentException
-						| IllegalAccessException ex) {
-				if(ex.getCause() instanceof NoClassDefFoundError) {
-					// The class needs another class to be defined
-					String classPath = classNameToPath(ex.getCause().getMessage());
-					pushToStackTop(stack, queued, classPath);
-				} else {
-					throw ex;
+		ByteBuffer buffer;
+		boolean defined;
+		try {
+			do {
+				item    = stack.peek();
+				path    = item.path;
+				name    = item.name;
+				buffer  = acquire(path);
+				defined = false;
+				
+				try {
+					// Check the supertypes only once, so that an invalid hierarchy,
+					// e.g. a cyclic one, is reported by the JVM instead.
+					if(!item.checked) {
+						item.checked = true;
+						
+						if(pushMissingSupertypes(stack, session, buffer)) {
+							continue; // The supertypes must be defined first
+						}
+					}
+					
+					// Also remembers that we already loaded this class
+					clazz = defineClass(loader, session, name, buffer);
+					defined = true;
+					// Class was successfully defined, remove it from the stack
+					stack.remove();
+				} finally {
+					// Bytes of a defined class are not needed anymore
+					if(defined) release(buffer);
+					else        keep(path, buffer);
 				}
 			}
+			// Repeat till there are some class need defining
+			while(!stack.isEmpty());
+		} finally {
+			// Release the bytes of classes that were not defined, if any
+			clearDefaultCache();
 		}
-		// Repeat till there are some class need defining
-		while(!stack.isEmpty());
 		
 		// Return the requested class
 		return clazz;
@@ -1,9 +1,15 @@
 package sune.util.load;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
 import java.security.ProtectionDomain;
 
+import sune.util.load.LoadEvents.ClassDefineEvent;
+
 /**
  * Defines methods that are required but were removed from the Unsafe class
  * in Java 11.
@@ -13,11 +19,52 @@ import java.security.ProtectionDomain;
 final class UnsafeLegacy {
 	
 	private static Method method_defineClass;
+	private static Method method_defineClassBuffer;
+	
+	/**
+	 * Direct method handle of the defineClass method, or {@code null},
+	 * if it cannot be obtained and the reflective call must be used.
+	 */
+	private static final MethodHandle handle_defineClass = createHandle_defineClass();
+	
+	/**
+	 * Direct method handle of the defineClass method accepting a ByteBuffer,
+	 * or {@code null}, if it cannot be obtained and the reflective call must
+	 * be used.
+	 */
+	private static final MethodHandle handle_defineClassBuffer = createHandle_defineClassBuffer();
 	
 	// Forbid anyone to create an instance of this class
 	private UnsafeLegacy() {
 	}
 	
+	private static final MethodHandle createHandle_defineClass() {
+		try {
+			// The method is already accessible, so no access check is done
+			return MethodHandles.lookup().unreflect(getMethod_defineClass())
+						.asType(MethodType.methodType(Class.class, ClassLoader.class, String.class,
+						                              byte[].class, int.class, int.class,
+						                              ProtectionDomain.class));
+		} catch(IllegalAccessException
+					| IllegalArgumentException
+					| IllegalStateException ex) {
+			return null; // Use the reflective call instead
+		}
+	}
+	
+	private static final MethodHandle createHandle_defineClassBuffer() {
+		try {
+			// The method is already accessible, so no access check is done
+			return MethodHandles.lookup().unreflect(getMethod_defineClassBuffer())
+						.asType(MethodType.methodType(Class.class, ClassLoader.class, String.class,
+						                              ByteBuffer.class, ProtectionDomain.class));
+		} catch(IllegalAccessException
+					| IllegalArgumentException
+					| IllegalStateException ex) {
+			return null; // Use the reflective call instead
+		}
+	}
+	
 	private static Method getMethod_defineClass()
 			throws IllegalArgumentException,
 				   IllegalAccessException {
@@ -36,6 +83,44 @@ final class UnsafeLegacy {
 		return method_defineClass;
 	}
 	
+	private static Method getMethod_defineClassBuffer()
+			throws IllegalArgumentException,
+				   IllegalAccessException {
+		if(method_defineClassBuffer == null) {
+			try {
+				method_defineClassBuffer = ClassLoader.class.getDeclaredMethod("defineClass",
+					String.class, ByteBuffer.class, ProtectionDomain.class);
+				Reflection.setAccessible(method_defineClassBuffer, true);
+			} catch(NoSuchMethodException
+						| NoSuchFieldException
+						| SecurityException ex) {
+				throw new IllegalStateException("Unable to access defineClass method", ex);
+			}
+		}
+		
+		return method_defineClassBuffer;
+	}
+	
+	private static final void commit(ClassDefineEvent event, String name, int size, ClassLoader loader,
+			Throwable error) {
+		if(event == null || !event.shouldCommit()) {
+			return;
+		}
+		
+		event.className = name;
+		event.size = size;
+		event.loaderClass = loader != null ? loader.getClass() : null;
+		event.success = error == null;
+		
+		if(error instanceof NoClassDefFoundError) {
+			event.missingClass = error.getMessage();
+		} else if(error != null) {
+			event.error = error.toString();
+		}
+		
+		event.commit();
+	}
+	
 	/**
 	 * Converts an array of bytes into an instance of class {@code Class},
      * with a given {@code ProtectionDomain}, defining this class in the given
@@ -59,6 +144,99 @@ final class UnsafeLegacy {
 			throws IllegalAccessException,
 				   IllegalArgumentException,
 				   InvocationTargetException {
-		return (Class<?>) getMethod_defineClass().invoke(loader, name, b, off, len, protectionDomain);
+		ClassDefineEvent event = LoadEvents.enabled() ? new ClassDefineEvent() : null;
+		if(event != null) event.begin();
+		
+		try {
+			Class<?> clazz = defineClass0(name, b, off, len, loader, protectionDomain);
+			commit(event, name, len, loader, null);
+			return clazz;
+		} catch(InvocationTargetException ex) {
+			commit(event, name, len, loader, ex.getCause());
+			throw ex;
+		}
+	}
+	
+	private static final Class<?> defineClass0(String name, byte[] b, int off, int len, ClassLoader loader,
+		ProtectionDomain protectionDomain)
+			throws IllegalAccessException,
+				   IllegalArgumentException,
+				   InvocationTargetException {
+		MethodHandle handle;
+		if((handle = handle_defineClass) == null) {
+			return (Class<?>) getMethod_defineClass().invoke(loader, name, b, off, len, protectionDomain);
+		}
+		
+		// Keep the same behavior as the reflective call
+		if(loader == null) {
+			throw new NullPointerException();
+		}
+		
+		try {
+			return (Class<?>) handle.invokeExact(loader, name, b, off, len, protectionDomain);
+		} catch(Throwable ex) {
+			// Report errors the same way as the reflective call does, so that
+			// callers can check the cause, e.g. for NoClassDefFoundError.
+			throw new InvocationTargetException(ex);
+		}
+	}
+	
+	/**
+	 * Converts a {@linkplain ByteBuffer} into an instance of class {@code Class},
+	 * with a given {@code ProtectionDomain}, defining this class in the given
+	 * {@code ClassLoader}. The bytes are used directly, without being copied to
+	 * a byte array first, if the buffer is a direct buffer.
+	 * @param name The expected <a href="#binary-name">binary name</a> of the class,
+	 * or {@code null} if not known
+	 * @param b The bytes that make up the class data. The bytes from positions
+	 * {@code b.position()} through {@code b.position() + b.limit() -1} should have
+	 * the format of a valid class file as defined by
+	 * <cite>The Java&trade; Virtual Machine Specification</cite>.
+	 * @param loader The class loader where to define the class
+	 * @param protectionDomain The {@code ProtectionDomain} of the class
+	 * @return The {@code Class} object created from the data,
+	 * and {@code ProtectionDomain}.
+	 * @see ClassLoader#defineClass(String, ByteBuffer, ProtectionDomain)
+	 */
+	public static final Class<?> defineClass(String name, ByteBuffer b, ClassLoader loader,
+		ProtectionDomain protectionDomain)
+			throws IllegalAccessException,
+				   IllegalArgumentException,
+				   InvocationTargetException {
+		ClassDefineEvent event = LoadEvents.enabled() ? new ClassDefineEvent() : null;
+		if(event != null) event.begin();
+		int size = b.remaining(); // The buffer is consumed by the definition
+		
+		try {
+			Class<?> clazz = defineClass0(name, b, loader, protectionDomain);
+			commit(event, name, size, loader, null);
+			return clazz;
+		} catch(InvocationTargetException ex) {
+			commit(event, name, size, loader, ex.getCause());
+			throw ex;
+		}
+	}
+	
+	private static final Class<?> defineClass0(String name, ByteBuffer b, ClassLoader loader,
+		ProtectionDomain protectionDomain)
+			throws IllegalAccessException,
+				   IllegalArgumentException,
+				   InvocationTargetException {
+		MethodHandle handle;
+		if((handle = handle_defineClassBuffer) == null) {
+			return (Class<?>) getMethod_defineClassBuffer().invoke(loader, name, b, protectionDomain);
+		}
+		
+		// Keep the same behavior as the reflective call
+		if(loader == null) {
+			throw new NullPointerException();
+		}
+		
+		try {
+			return (Class<?>) handle.invokeExact(loader, name, b, protectionDomain);
+		} catch(Throwable ex) {
+			// Report errors the same way as the reflective call does
+			throw new InvocationTargetException(ex);
+		}
 	}
 }
\ No newline at end of file
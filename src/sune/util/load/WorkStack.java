@@ -0,0 +1,118 @@
+package sune.util.load;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * Stack of classes to be defined by a {@linkplain RootClassLoader}.
+ * Apart from the classes on the stack, it remembers all classes that were
+ * ever pushed to it, so that each class is queued only once.
+ * </p>
+ * 
+ * <p>
+ * The stack is a doubly-linked list of items indexed by the paths of their
+ * classes, therefore a queued class that is still on the stack is found
+ * and moved to the top of the stack in constant time.
+ * </p>
+ * 
+ * @author Sune
+ */
+final class WorkStack {
+	
+	private final Map<String, Item> items = new HashMap<>();
+	private Item top;
+	
+	private final void link(Item item) {
+		item.below = top;
+		
+		if(top != null) {
+			top.above = item;
+		}
+		
+		top = item;
+		item.onStack = true;
+	}
+	
+	private final void unlink(Item item) {
+		if(item.above != null) item.above.below = item.below;
+		else                   top = item.below;
+		
+		if(item.below != null) {
+			item.below.above = item.above;
+		}
+		
+		item.above = null;
+		item.below = null;
+		item.onStack = false;
+	}
+	
+	/**
+	 * Pushes a class located at the given {@code path} with the given
+	 * {@code name} to the top of the stack, if it was not queued yet.
+	 * @return {@code true}, if the class was pushed, otherwise {@code false}.
+	 */
+	final boolean push(String path, String name) {
+		if(items.containsKey(path)) {
+			return false;
+		}
+		
+		Item item = new Item(path, name);
+		items.put(path, item);
+		link(item);
+		return true;
+	}
+	
+	/**
+	 * Moves a class located at the given {@code path} to the top of the stack,
+	 * if it is on the stack, or pushes it, if it was not queued yet. A class that
+	 * was already removed from the stack is not pushed again.
+	 */
+	final void pushToTop(String path, String name) {
+		Item item = items.get(path);
+		
+		if(item == null) {
+			push(path, name);
+		} else if(item.onStack && item != top) {
+			unlink(item);
+			link(item);
+		}
+	}
+	
+	/**
+	 * Gets the item at the top of the stack, or {@code null}, if the stack
+	 * is empty. Items below it are available using {@code Item.below}.
+	 */
+	final Item peek() {
+		return top;
+	}
+	
+	/**
+	 * Removes the item at the top of the stack. The class remains queued.
+	 */
+	final Item remove() {
+		Item item = top;
+		unlink(item);
+		return item;
+	}
+	
+	final boolean isEmpty() {
+		return top == null;
+	}
+	
+	static final class Item {
+		
+		final String path;
+		final String name;
+		Item above;
+		Item below;
+		boolean onStack;
+		// Whether the supertypes of the class were already checked
+		boolean checked;
+		
+		Item(String path, String name) {
+			this.path = path;
+			this.name = name;
+		}
+	}
+}
\ No newline at end of file
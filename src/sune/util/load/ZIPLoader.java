@@ -1,7 +1,15 @@
 package sune.util.load;
 
+import java.io.IOException;
+import java.lang.module.ModuleReader;
 import java.lang.module.ResolvedModule;
 import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+
+import sune.util.load.LoadEvents.ZIPLoadEvent;
 
 /**
  * Contains useful methods for loading ZIP files.
@@ -13,9 +21,22 @@ public final class ZIPLoader {
 	private ZIPLoader() {
 	}
 	
+	/**
+	 * Opens a reader of contents of the given {@code module} located at
+	 * the given {@code path}. Regular JAR files are memory-mapped using
+	 * {@linkplain MappedJarReader}, other files, e.g. exploded modules or
+	 * multi-release JAR files, are read using the module's reference.
+	 */
+	private static final ModuleReader openReader(Path path, ResolvedModule module) throws IOException {
+		ModuleReader reader = MappedJarReader.tryOpen(path);
+		return reader != null ? reader : module.reference().open();
+	}
+	
 	/**
 	 * Loads a ZIP file located at the given {@code path}. The file is loaded
 	 * with the given {@code name} and into the given {@code loader}.
+	 * If the file contains a {@linkplain LoadOrderManifest} that matches it,
+	 * its classes are defined in the precomputed order.
 	 * @param path the path of a file to be loaded
 	 * @param name the module name
 	 * @param loader the ClassLoader where load the file to
@@ -26,13 +47,185 @@ public final class ZIPLoader {
 			return true;
 		}
 		
+		boolean enabled = LoadListeners.enabled();
+		long start = enabled ? System.nanoTime() : 0L;
+		ZIPLoadEvent event = LoadEvents.enabled() ? new ZIPLoadEvent() : null;
+		if(event != null) event.begin();
+		
 		ResolvedModule module = ModuleLoader.loadModule(path, name, loader);
 		
-		if(module == null) {
-			return false; // Unable to load the module
+		if(module != null) {
+			try(ModuleReader reader = openReader(path, module)) {
+				ModuleContentLoader.loadContent(module, loader, reader);
+			}
+			
+			if(enabled) {
+				LoadListeners.zipLoaded(path, name, System.nanoTime() - start);
+			}
+		}
+		
+		if(event != null && event.shouldCommit()) {
+			event.moduleName = name;
+			event.path = path.toString();
+			event.success = module != null;
+			event.commit();
+		}
+		
+		// The module is null, if it cannot be loaded
+		return module != null;
+	}
+	
+	/**
+	 * Loads a ZIP file located at the given {@code path} in the background
+	 * using the given {@code executor}. The file is loaded with the given
+	 * {@code name} and into the given {@code loader}. The module is resolved
+	 * and registered on the calling thread, only its contents are loaded
+	 * in the background, see {@linkplain ModuleContentLoader#loadContentAsync(
+	 * ResolvedModule, ClassLoader, Executor) ModuleContentLoader.loadContentAsync}.
+	 * @param path the path of a file to be loaded
+	 * @param name the module name
+	 * @param loader the ClassLoader where load the file to
+	 * @param executor the executor where to run the loading
+	 * @return The handle of the loading. Its future is completed with {@code true},
+	 * if the file was loaded, otherwise {@code false}.
+	 */
+	public static final ModuleLoadTask loadAsync(Path path, String name, ClassLoader loader, Executor executor)
+			throws Exception {
+		Objects.requireNonNull(executor);
+		
+		if(ModuleLoader.isLoaded(name)) {
+			return ModuleLoadTask.completed(name, loader, true);
+		}
+		
+		boolean enabled = LoadListeners.enabled();
+		long start = enabled ? System.nanoTime() : 0L;
+		ZIPLoadEvent event = LoadEvents.enabled() ? new ZIPLoadEvent() : null;
+		if(event != null) event.begin();
+		
+		ResolvedModule module = ModuleLoader.loadModule(path, name, loader);
+		ModuleLoadTask task;
+		
+		if(module != null) {
+			ModuleReader reader = openReader(path, module);
+			// The reader is closed once the contents are loaded
+			task = ModuleContentLoader.loadContentAsync(module, loader, reader, true, executor);
+		} else {
+			// The module is null, if it cannot be loaded
+			task = ModuleLoadTask.completed(name, loader, false);
+		}
+		
+		task.future().whenComplete((loaded, ex) -> {
+			boolean success = ex == null && loaded;
+			
+			if(enabled && success) {
+				LoadListeners.zipLoaded(path, name, System.nanoTime() - start);
+			}
+			
+			if(event != null && event.shouldCommit()) {
+				event.moduleName = name;
+				event.path = path.toString();
+				event.success = success;
+				event.commit();
+			}
+		});
+		
+		return task;
+	}
+	
+	/**
+	 * <p>
+	 * Reloads a ZIP file located at the given {@code path} as a new version
+	 * of a module with the given {@code name} into the given {@code loader}.
+	 * The previous version of the module is replaced by the new one, see
+	 * {@linkplain ModuleLoader#reloadModule(Path, String, ClassLoader)
+	 * ModuleLoader.reloadModule}, therefore the loader must be a class loader
+	 * where the classes of the previous version are not defined, e.g. a new one,
+	 * otherwise an {@linkplain IllegalArgumentException} is thrown.
+	 * </p>
+	 * 
+	 * <p>
+	 * The reload is not incremental. The contents are loaded the same way as
+	 * by {@linkplain #load(Path, String, ClassLoader) load}, i.e. all classes
+	 * of the new version are read and defined in the loader, whether they were
+	 * changed or not.
+	 * </p>
+	 * 
+	 * @param path the path of a file to be loaded
+	 * @param name the module name
+	 * @param loader the ClassLoader where load the file to
+	 * @return {@code true}, if the file was loaded, otherwise {@code false}.
+	 */
+	public static final boolean reload(Path path, String name, ClassLoader loader) throws Exception {
+		boolean enabled = LoadListeners.enabled();
+		long start = enabled ? System.nanoTime() : 0L;
+		ZIPLoadEvent event = LoadEvents.enabled() ? new ZIPLoadEvent() : null;
+		if(event != null) event.begin();
+		
+		ResolvedModule module = ModuleLoader.reloadModule(path, name, loader);
+		
+		if(module != null) {
+			try(ModuleReader reader = openReader(path, module)) {
+				ModuleContentLoader.loadContent(module, loader, reader);
+			}
+			
+			if(enabled) {
+				LoadListeners.zipLoaded(path, name, System.nanoTime() - start);
+			}
+		}
+		
+		if(event != null && event.shouldCommit()) {
+			event.moduleName = name;
+			event.path = path.toString();
+			event.success = module != null;
+			event.commit();
+		}
+		
+		// The module is null, if it cannot be loaded
+		return module != null;
+	}
+	
+	/**
+	 * Loads ZIP files located at the given paths. The files are loaded with
+	 * the given names and into the given {@code loader}. All the modules are
+	 * registered at once, see {@linkplain ModuleLoader#loadModules(Map,
+	 * ClassLoader) ModuleLoader.loadModules}, then contents of the modules
+	 * are loaded one by one.
+	 * @param modules the paths of files to be loaded mapped by the module names
+	 * @param loader the ClassLoader where load the files to
+	 * @return {@code true}, if all the files were loaded, otherwise {@code false}.
+	 */
+	public static final boolean load(Map<String, Path> modules, ClassLoader loader) throws Exception {
+		Map<String, Path> missing = new LinkedHashMap<>(modules);
+		missing.keySet().removeIf(ModuleLoader::isLoaded);
+		
+		if(missing.isEmpty()) {
+			return true;
+		}
+		
+		boolean enabled = LoadListeners.enabled();
+		boolean loaded = true;
+		
+		for(Map.Entry<String, ResolvedModule> entry : ModuleLoader.loadModules(missing, loader).entrySet()) {
+			String name = entry.getKey();
+			ResolvedModule module = entry.getValue();
+			
+			if(module == null) {
+				loaded = false;
+				continue;
+			}
+			
+			Path path = missing.get(name);
+			long start = enabled ? System.nanoTime() : 0L;
+			
+			try(ModuleReader reader = openReader(path, module)) {
+				ModuleContentLoader.loadContent(module, loader, reader);
+			}
+			
+			if(enabled) {
+				LoadListeners.zipLoaded(path, name, System.nanoTime() - start);
+			}
 		}
 		
-		ModuleContentLoader.loadContent(module, loader);
-		return true;
+		return loaded;
 	}
 }
\ No newline at end of file